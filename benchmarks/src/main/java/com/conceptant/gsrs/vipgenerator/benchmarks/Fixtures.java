@@ -0,0 +1,46 @@
+package com.conceptant.gsrs.vipgenerator.benchmarks;
+
+import com.conceptant.gsrs.vipgenerator.NetworkMaker;
+import com.conceptant.gsrs.vipgenerator.SubstanceGraph;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Substance records bundled with the benchmarks: interlinked GSRS records shaped like the public dump, the first one
+ * being a hub with many relationships.
+ */
+public class Fixtures {
+    public static final String SUBSTANCES_RESOURCE = "/fixtures/substances.jsonl";
+
+    public static List<String> readSubstances() throws IOException {
+        List<String> substances = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Fixtures.class.getResourceAsStream(SUBSTANCES_RESOURCE), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                substances.add(line);
+            }
+        }
+        return substances;
+    }
+
+    // The graph is loaded the same way as by the generator, from a gzipped dump
+    public static SubstanceGraph loadGraph() throws IOException {
+        File dumpFile = File.createTempFile("substances", ".gsrs");
+        try {
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(dumpFile)), StandardCharsets.UTF_8)) {
+                for (String substance : readSubstances()) {
+                    writer.write(substance);
+                    writer.write('\n');
+                }
+            }
+            return NetworkMaker.getNodesCache(dumpFile);
+        } finally {
+            dumpFile.delete();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.conceptant.gsrs.vipgenerator.benchmarks;
+
+import com.conceptant.gsrs.vipgenerator.ExpansionCache;
+import com.conceptant.gsrs.vipgenerator.Network;
+import com.conceptant.gsrs.vipgenerator.NetworkLink;
+import com.conceptant.gsrs.vipgenerator.NetworkMaker;
+import com.conceptant.gsrs.vipgenerator.SubstanceGraph;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network generation over the graph of the fixtures with the default generator limits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkBenchmark {
+    private SubstanceGraph graph;
+    private int hubId;
+    private int leafId;
+    private List<NetworkLink> hubLinks;
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+
+        graph = Fixtures.loadGraph();
+        hubId = 0;
+        leafId = 0;
+        for (int id = 0; id < graph.size(); id++) {
+            if (graph.getDegree(id) > graph.getDegree(hubId)) {
+                hubId = id;
+            }
+            if (graph.getDegree(id) > 0 && (graph.getDegree(leafId) == 0 || graph.getDegree(id) < graph.getDegree(leafId))) {
+                leafId = id;
+            }
+        }
+
+        hubLinks = getNetwork(hubId).links;
+    }
+
+    private Network getNetwork(int rootId) throws IOException {
+        return NetworkMaker.getNetwork(rootId, graph, NetworkMaker.DEFAULT_NESTING_LEVEL,
+                NetworkMaker.DEFAULT_MAX_NUMBER_OF_ELEMENTS, NetworkMaker.DEFAULT_MAX_NUMBER_OF_LINKS_PER_NODE);
+    }
+
+    private String getNetworkJson(int rootId) throws IOException {
+        return NetworkMaker.getNetworkJson(rootId, graph, NetworkMaker.DEFAULT_NESTING_LEVEL,
+                NetworkMaker.DEFAULT_MAX_NUMBER_OF_ELEMENTS, NetworkMaker.DEFAULT_MAX_NUMBER_OF_LINKS_PER_NODE);
+    }
+
+    @Benchmark
+    public String getNetworkJsonForHub() throws IOException {
+        return getNetworkJson(hubId);
+    }
+
+    @Benchmark
+    public String getNetworkJsonForLeaf() throws IOException {
+        return getNetworkJson(leafId);
+    }
+
+    @Benchmark
+    public Network getNetworkForHubBestFirst() throws IOException {
+        return NetworkMaker.getNetwork(hubId, graph, new ExpansionCache(graph, 0), NetworkMaker.DEFAULT_NESTING_LEVEL,
+                NetworkMaker.DEFAULT_MAX_NUMBER_OF_ELEMENTS, NetworkMaker.DEFAULT_MAX_NUMBER_OF_LINKS_PER_NODE, NetworkMaker.EXPANSION_BEST_FIRST);
+    }
+
+    // addLinkMeta updates the links in place, so it gets new links without link meta which are included in the measurement
+    @Benchmark
+    public List<NetworkLink> addLinkMeta() {
+        List<NetworkLink> links = new ArrayList<>(hubLinks.size());
+        for (NetworkLink link : hubLinks) {
+            links.add(new NetworkLink(link.record, link.sourceUuid, link.targetUuid));
+        }
+        NetworkMaker.addLinkMeta(links);
+        return links;
+    }
+}
@@ -0,0 +1,61 @@
+package com.conceptant.gsrs.vipgenerator.benchmarks;
+
+import com.conceptant.gsrs.vipgenerator.LinkTypeRules;
+import com.conceptant.gsrs.vipgenerator.NetworkMaker;
+import com.conceptant.gsrs.vipgenerator.SubstanceParser;
+import com.conceptant.gsrs.vipgenerator.SubstanceRecord;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record parsing done at ingest, measured on the hub record of the fixtures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+    private String substanceJson;
+    private LinkTypeRules allLinkTypeRules;
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+
+        substanceJson = Fixtures.readSubstances().get(0);
+
+        String allRules = String.join("\n",
+                "$.relationships[*].mediatorSubstance=Relationship",
+                "$.relationships[*].relatedSubstance=Relationship",
+                "$.mixture.components[*].substance=Component",
+                "$.mixture.parentSubstance=Mixture",
+                "$.modifications.agentModifications[*].agentSubstance=AgentModification",
+                "$.modifications.structuralModifications[*].molecularFragment=StructuralModification",
+                "$.polymer.classification.parentSubstance=PolymerClassification",
+                "$.polymer.monomers[*].monomerSubstance=Monomer",
+                "$.structurallyDiverse.hybridSpeciesMaternalOrganism=StructurallyDiverse",
+                "$.structurallyDiverse.hybridSpeciesPaternalOrganism=StructurallyDiverse",
+                "$.structurallyDiverse.parentSubstance=StructurallyDiverse");
+        allLinkTypeRules = LinkTypeRules.load(new ByteArrayInputStream(allRules.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public Map<String, Object> getNode() {
+        return NetworkMaker.getNode(substanceJson);
+    }
+
+    // same pass as getNode, which uses the default rules, with all link families enabled
+    @Benchmark
+    public SubstanceRecord parseSubstanceWithAllLinkTypes() throws IOException {
+        return SubstanceParser.parse(substanceJson, allLinkTypeRules);
+    }
+}
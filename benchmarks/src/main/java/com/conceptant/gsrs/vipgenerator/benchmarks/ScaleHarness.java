@@ -0,0 +1,159 @@
+package com.conceptant.gsrs.vipgenerator.benchmarks;
+
+import com.conceptant.gsrs.vipgenerator.Args;
+import com.conceptant.gsrs.vipgenerator.NetworkMaker;
+import com.conceptant.gsrs.vipgenerator.SubstanceGraph;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.commons.cli.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end scale runs: for every size a synthetic dump is generated and the generator is run over it the same way
+ * as by NetworkMaker.main (loading the graph, then generating every network), reporting ingest time, generation
+ * throughput, peak heap and output size. The report is printed and written to scale-report.json in the work directory.
+ * <p>
+ * The generator logs at INFO level during the runs, the DEBUG line per root would dominate the measurement otherwise.
+ */
+public class ScaleHarness {
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final int HEAP_SAMPLING_INTERVAL_MS = 10;
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        options.addOption("c", true, "comma-separated numbers of substances (default 10000,100000,1000000)");
+        options.addOption("w", true, "work directory for the dumps, output and report (default scale)");
+        options.addOption("t", true, "number of threads of the generator (default 1)");
+        options.addOption("o", true, "output format of the generator (default files)");
+        options.addOption("l", true, "depth of the networks (default 4)");
+        options.addOption("m", true, "maximum number of elements (default 1000)");
+        options.addOption("n", true, "maximum number of links per node (default 50)");
+        options.addOption("r", true, "mean number of relationships per substance (default 2)");
+        options.addOption("a", true, "power-law exponent of the number of relationships (default 2.5)");
+        options.addOption("x", true, "maximum number of relationships per substance (default 1000)");
+        options.addOption("k", true, "target skew (default 1.5)");
+        options.addOption("h", "help", false, "display this message");
+
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.out.println(e.getMessage());
+            new HelpFormatter().printHelp("ScaleHarness", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("ScaleHarness", options);
+            System.exit(0);
+        }
+
+        File workDirectory = new File(cmd.getOptionValue("w", "scale"));
+        Files.createDirectories(workDirectory.toPath());
+        Logger.getRootLogger().setLevel(Level.INFO);
+
+        List<Map<String, Object>> report = new ArrayList<>();
+        for (String size : cmd.getOptionValue("c", "10000,100000,1000000").split(",")) {
+            SyntheticDumpGenerator dumpGenerator = new SyntheticDumpGenerator(Integer.parseInt(size.trim()));
+            dumpGenerator.meanDegree = Double.parseDouble(cmd.getOptionValue("r", "2"));
+            dumpGenerator.powerLawExponent = Double.parseDouble(cmd.getOptionValue("a", "2.5"));
+            dumpGenerator.maxDegree = Integer.parseInt(cmd.getOptionValue("x", "1000"));
+            dumpGenerator.targetSkew = Double.parseDouble(cmd.getOptionValue("k", "1.5"));
+
+            File dumpFile = new File(workDirectory, "synthetic-" + dumpGenerator.numberOfSubstances + ".gsrs");
+            System.out.println("Generating " + dumpFile.getAbsolutePath());
+            dumpGenerator.write(dumpFile);
+
+            Args parsedArgs = new Args(dumpFile, new File(workDirectory, "output-" + dumpGenerator.numberOfSubstances),
+                    Integer.parseInt(cmd.getOptionValue("l", String.valueOf(NetworkMaker.DEFAULT_NESTING_LEVEL))),
+                    Integer.parseInt(cmd.getOptionValue("m", String.valueOf(NetworkMaker.DEFAULT_MAX_NUMBER_OF_ELEMENTS))),
+                    Integer.parseInt(cmd.getOptionValue("n", String.valueOf(NetworkMaker.DEFAULT_MAX_NUMBER_OF_LINKS_PER_NODE))));
+            parsedArgs.numberOfThreads = Integer.parseInt(cmd.getOptionValue("t", String.valueOf(NetworkMaker.DEFAULT_NUMBER_OF_THREADS)));
+            parsedArgs.outputFormat = cmd.getOptionValue("o", NetworkMaker.DEFAULT_OUTPUT_FORMAT);
+
+            Map<String, Object> result = run(parsedArgs);
+            System.out.println(result);
+            report.add(result);
+            deleteRecursively(parsedArgs.outputDirectory.toPath());
+        }
+
+        File reportFile = new File(workDirectory, "scale-report.json");
+        mapper.writeValue(reportFile, report);
+        System.out.println("Report written to " + reportFile.getAbsolutePath());
+    }
+
+    public static Map<String, Object> run(Args parsedArgs) throws IOException {
+        deleteRecursively(parsedArgs.outputDirectory.toPath());
+        Files.createDirectories(parsedArgs.outputDirectory.toPath());
+
+        System.gc();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, HEAP_SAMPLING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        long ingestNanos;
+        long generationNanos;
+        int numberOfSubstances;
+        try {
+            long start = System.nanoTime();
+            SubstanceGraph graph = NetworkMaker.loadSubstanceGraph(parsedArgs);
+            ingestNanos = System.nanoTime() - start;
+            numberOfSubstances = graph.size();
+
+            start = System.nanoTime();
+            NetworkMaker.generateNetworkFiles(parsedArgs, graph);
+            generationNanos = System.nanoTime() - start;
+        } finally {
+            sampler.shutdownNow();
+        }
+
+        long[] output = getSizeAndCount(parsedArgs.outputDirectory.toPath());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("substances", numberOfSubstances);
+        result.put("dumpBytes", parsedArgs.gsrsFile.length());
+        result.put("ingestMs", ingestNanos / 1_000_000);
+        result.put("ingestRecordsPerSec", Math.round(numberOfSubstances / (ingestNanos / 1e9)));
+        result.put("generationMs", generationNanos / 1_000_000);
+        result.put("generationRootsPerSec", Math.round(numberOfSubstances / (generationNanos / 1e9)));
+        result.put("peakHeapMb", peakHeap.get() / (1024 * 1024));
+        result.put("outputBytes", output[0]);
+        result.put("outputFiles", output[1]);
+        return result;
+    }
+
+    private static long[] getSizeAndCount(Path directory) throws IOException {
+        long[] sizeAndCount = new long[2];
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                sizeAndCount[0] += path.toFile().length();
+                sizeAndCount[1]++;
+            });
+        }
+        return sizeAndCount;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.conceptant.gsrs.vipgenerator.benchmarks;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.cli.*;
+
+import java.io.*;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a synthetic gzipped .gsrs dump: one substance json per line with the names, codes and relationships read by
+ * the generator.
+ * <p>
+ * The number of relationships of a substance is either uniform in [0, 2 * mean] or, with a power-law exponent, drawn
+ * from a Pareto distribution with the same mean, which produces a few hubs with hundreds of relationships. The target
+ * skew concentrates references on the first substances of the dump, so hubs get many incoming links as well.
+ */
+public class SyntheticDumpGenerator {
+    private static final String[] SUBSTANCE_CLASSES = {
+            "chemical", "chemical", "chemical", "chemical", "protein", "mixture", "structurallyDiverse", "polymer",
+            "nucleicAcid", "concept"
+    };
+    private static final String[] RELATIONSHIP_TYPES = {
+            "ACTIVE MOIETY", "SALT/SOLVATE->PARENT", "PARENT->SALT/SOLVATE", "METABOLITE->PARENT",
+            "PARENT->METABOLITE", "TARGET->INHIBITOR", "INHIBITOR->TARGET", "IMPURITY->PARENT",
+            "ENANTIOMER->RACEMATE", "SUBSTANCE->SUBMITTED REFERENCE"
+    };
+    private static final String[] CODE_SYSTEMS = {"CAS", "RXCUI", "DRUG BANK", "PUBCHEM", "EVMPD", "ChEMBL"};
+    private static final String[] NAME_TYPES = {"cn", "sys", "bn", "of"};
+
+    public int numberOfSubstances;
+    public double meanDegree = 4;
+    public double powerLawExponent = 0;
+    public int maxDegree = 1000;
+    public double targetSkew = 1;
+    public double mediatorFraction = 0.05;
+    public double missingTargetFraction = 0.01;
+    public double displayNameFraction = 0.8;
+    public double approvalIdFraction = 0.7;
+    public long seed = 1;
+
+    public SyntheticDumpGenerator(int numberOfSubstances) {
+        this.numberOfSubstances = numberOfSubstances;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        options.addOption("c", true, "number of substances, required");
+        options.addOption("f", true, "output .gsrs file, required");
+        options.addOption("r", true, "mean number of relationships per substance (default 4)");
+        options.addOption("a", true, "power-law exponent of the number of relationships, greater than 1 (default is uniform)");
+        options.addOption("x", true, "maximum number of relationships per substance (default 1000)");
+        options.addOption("k", true, "target skew, 1 is uniform and higher values link more to the first substances (default 1)");
+        options.addOption("m", true, "fraction of relationships with a mediator substance (default 0.05)");
+        options.addOption("u", true, "fraction of references to substances missing from the dump (default 0.01)");
+        options.addOption("n", true, "fraction of substances with a display name (default 0.8)");
+        options.addOption("p", true, "fraction of substances with an approval id (default 0.7)");
+        options.addOption("s", true, "random seed (default 1)");
+        options.addOption("h", "help", false, "display this message");
+
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.out.println(e.getMessage());
+            new HelpFormatter().printHelp("SyntheticDumpGenerator", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("h") || !cmd.hasOption("c") || !cmd.hasOption("f")) {
+            new HelpFormatter().printHelp("SyntheticDumpGenerator", options);
+            System.exit(cmd.hasOption("h") ? 0 : 1);
+        }
+
+        SyntheticDumpGenerator generator = new SyntheticDumpGenerator(Integer.parseInt(cmd.getOptionValue("c")));
+        generator.meanDegree = Double.parseDouble(cmd.getOptionValue("r", String.valueOf(generator.meanDegree)));
+        generator.powerLawExponent = Double.parseDouble(cmd.getOptionValue("a", String.valueOf(generator.powerLawExponent)));
+        generator.maxDegree = Integer.parseInt(cmd.getOptionValue("x", String.valueOf(generator.maxDegree)));
+        generator.targetSkew = Double.parseDouble(cmd.getOptionValue("k", String.valueOf(generator.targetSkew)));
+        generator.mediatorFraction = Double.parseDouble(cmd.getOptionValue("m", String.valueOf(generator.mediatorFraction)));
+        generator.missingTargetFraction = Double.parseDouble(cmd.getOptionValue("u", String.valueOf(generator.missingTargetFraction)));
+        generator.displayNameFraction = Double.parseDouble(cmd.getOptionValue("n", String.valueOf(generator.displayNameFraction)));
+        generator.approvalIdFraction = Double.parseDouble(cmd.getOptionValue("p", String.valueOf(generator.approvalIdFraction)));
+        generator.seed = Long.parseLong(cmd.getOptionValue("s", String.valueOf(generator.seed)));
+        if (generator.powerLawExponent != 0 && generator.powerLawExponent <= 1) {
+            System.out.println("Power-law exponent must be greater than 1");
+            System.exit(1);
+        }
+
+        File dumpFile = new File(cmd.getOptionValue("f"));
+        long start = System.nanoTime();
+        generator.write(dumpFile);
+        System.out.println("Written " + generator.numberOfSubstances + " substances to " + dumpFile.getAbsolutePath()
+                + " (" + dumpFile.length() + " bytes) in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    public void write(File dumpFile) throws IOException {
+        Random random = new Random(seed);
+        JsonFactory factory = new JsonFactory();
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(dumpFile), 1 << 16), 1 << 16)) {
+            for (int id = 0; id < numberOfSubstances; id++) {
+                // a generator per line, so every substance is written as a single line
+                try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+                    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                    writeSubstance(generator, id, random);
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    public static String getUuid(long seed, int id) {
+        return new UUID(seed * 0x9E3779B97F4A7C15L + id, ~(long) id * 0xC2B2AE3D27D4EB4FL).toString();
+    }
+
+    private static String getRandomUuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    public int getDegree(Random random) {
+        double degree;
+        if (powerLawExponent == 0) {
+            degree = random.nextDouble() * 2 * meanDegree;
+        } else {
+            // a Pareto distribution with the scale giving the requested mean
+            double scale = meanDegree * (powerLawExponent - 1) / powerLawExponent;
+            degree = scale / Math.pow(1 - random.nextDouble(), 1 / powerLawExponent);
+        }
+        return (int) Math.min(maxDegree, Math.round(degree));
+    }
+
+    private String getTargetUuid(Random random) {
+        if (random.nextDouble() < missingTargetFraction) {
+            return getUuid(seed + 1, random.nextInt(Integer.MAX_VALUE));
+        }
+        int target = (int) (numberOfSubstances * Math.pow(random.nextDouble(), targetSkew));
+        return getUuid(seed, Math.min(target, numberOfSubstances - 1));
+    }
+
+    private void writeSubstance(JsonGenerator generator, int id, Random random) throws IOException {
+        String uuid = getUuid(seed, id);
+        String substanceClass = SUBSTANCE_CLASSES[random.nextInt(SUBSTANCE_CLASSES.length)];
+        boolean hasApprovalId = random.nextDouble() < approvalIdFraction;
+        String unii = String.format("U%09d", id);
+
+        generator.writeStartObject();
+        generator.writeStringField("uuid", uuid);
+        generator.writeStringField("substanceClass", substanceClass);
+        generator.writeStringField("status", hasApprovalId ? "approved" : "pending");
+        generator.writeStringField("version", String.valueOf(1 + random.nextInt(20)));
+        if (hasApprovalId) {
+            generator.writeStringField("approvalID", unii);
+        }
+        generator.writeStringField("definitionType", "PRIMARY");
+        generator.writeStringField("definitionLevel", "COMPLETE");
+        writeAudit(generator, random);
+
+        int numberOfNames = 1 + random.nextInt(5);
+        int displayName = random.nextDouble() < displayNameFraction ? random.nextInt(numberOfNames) : -1;
+        generator.writeArrayFieldStart("names");
+        for (int i = 0; i < numberOfNames; i++) {
+            generator.writeStartObject();
+            generator.writeStringField("uuid", getRandomUuid(random));
+            generator.writeStringField("name", "SUBSTANCE " + id + " NAME " + i);
+            generator.writeStringField("stdName", "SUBSTANCE " + id + " NAME " + i);
+            generator.writeStringField("type", NAME_TYPES[random.nextInt(NAME_TYPES.length)]);
+            generator.writeArrayFieldStart("languages");
+            generator.writeString("en");
+            generator.writeEndArray();
+            generator.writeBooleanField("preferred", i == 0);
+            generator.writeBooleanField("displayName", i == displayName);
+            writeReferences(generator, random);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("codes");
+        if (!hasApprovalId && random.nextBoolean()) {
+            writeCode(generator, "FDA UNII", unii, random);
+        }
+        for (int i = random.nextInt(4); i > 0; i--) {
+            String codeSystem = CODE_SYSTEMS[random.nextInt(CODE_SYSTEMS.length)];
+            writeCode(generator, codeSystem, codeSystem.substring(0, 3) + "-" + random.nextInt(1_000_000), random);
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("relationships");
+        for (int i = getDegree(random); i > 0; i--) {
+            generator.writeStartObject();
+            generator.writeStringField("uuid", getRandomUuid(random));
+            generator.writeStringField("type", RELATIONSHIP_TYPES[random.nextInt(RELATIONSHIP_TYPES.length)]);
+            writeSubstanceReference(generator, "relatedSubstance", getTargetUuid(random), random);
+            if (random.nextDouble() < mediatorFraction) {
+                writeSubstanceReference(generator, "mediatorSubstance", getTargetUuid(random), random);
+            }
+            writeReferences(generator, random);
+            writeAudit(generator, random);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("tags");
+        generator.writeString("NOMEN");
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("access");
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static void writeCode(JsonGenerator generator, String codeSystem, String code, Random random) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("uuid", getRandomUuid(random));
+        generator.writeStringField("codeSystem", codeSystem);
+        generator.writeStringField("code", code);
+        generator.writeStringField("type", "PRIMARY");
+        writeReferences(generator, random);
+        generator.writeEndObject();
+    }
+
+    private static void writeSubstanceReference(JsonGenerator generator, String fieldName, String refuuid, Random random) throws IOException {
+        generator.writeObjectFieldStart(fieldName);
+        generator.writeStringField("uuid", getRandomUuid(random));
+        generator.writeStringField("refPname", "SUBSTANCE REFERENCE");
+        generator.writeStringField("refuuid", refuuid);
+        generator.writeStringField("substanceClass", "reference");
+        generator.writeEndObject();
+    }
+
+    private static void writeReferences(JsonGenerator generator, Random random) throws IOException {
+        generator.writeArrayFieldStart("references");
+        for (int i = 1 + random.nextInt(2); i > 0; i--) {
+            generator.writeString(getRandomUuid(random));
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeAudit(JsonGenerator generator, Random random) throws IOException {
+        generator.writeNumberField("created", 1539195360000L + random.nextInt(1_000_000_000));
+        generator.writeStringField("createdBy", "admin");
+        generator.writeNumberField("lastEdited", 1601398000000L + random.nextInt(1_000_000_000));
+        generator.writeStringField("lastEditedBy", "FDA_SRS");
+        generator.writeBooleanField("deprecated", false);
+    }
+}
@@ -1,6 +1,8 @@
 package com.conceptant.gsrs.vipgenerator;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 public class Args {
     public File gsrsFile;
@@ -8,6 +10,26 @@ public class Args {
     public Integer nestingLevel;
     public Integer maxNumberOfElements;
     public Integer maxNumberOfLinksPerNode;
+    public int numberOfThreads = NetworkMaker.DEFAULT_NUMBER_OF_THREADS;
+    public File snapshotFile;
+    public File previousFile;
+    public String outputFormat = NetworkMaker.DEFAULT_OUTPUT_FORMAT;
+    public String expansionStrategy = NetworkMaker.DEFAULT_EXPANSION_STRATEGY;
+    public int numberOfShards = NetworkMaker.DEFAULT_NUMBER_OF_SHARDS;
+    public int expansionCacheSizeMb = NetworkMaker.DEFAULT_EXPANSION_CACHE_SIZE_MB;
+    public Integer serverPort;
+    public int responseCacheSizeMb = NetworkMaker.DEFAULT_RESPONSE_CACHE_SIZE_MB;
+    // Set with --shard shard/shardCount, only the roots of this shard are generated (see ShardManifest)
+    public Integer shard;
+    public Integer shardCount;
+    // Skips the roots completed by a previous attempt of the same run, see ProgressJournal
+    public boolean resume;
+    // Set with --encodings, the encodings of the written json files (see CompressionStage)
+    public List<String> encodings = Collections.singletonList(NetworkMaker.DEFAULT_ENCODINGS);
+    // Set with --link-types, null for the default link type rules (see LinkTypeRules)
+    public File linkTypesFile;
+    // Set with --store, the directory of the store files, null keeps the node jsons and link records on the heap (see SubstanceStore)
+    public File storeDirectory;
 
     public Args(File gsrsFile, File outputDirectory, Integer nestingLevel, Integer maxNumberOfElements, Integer maxNumberOfLinksPerNode) {
         this.gsrsFile = gsrsFile;
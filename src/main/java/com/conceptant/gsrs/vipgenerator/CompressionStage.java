@@ -0,0 +1,319 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the json files of the output directory in the encodings of the --encodings option through the ContentManifest:
+ * the plain &lt;name&gt;.json, &lt;name&gt;.json.gz for web servers serving precompressed files (e.g. nginx gzip_static)
+ * and &lt;name&gt;.json.deflate compressed with the preset dictionary of DeflateDictionary.
+ * <p>
+ * Plain files are written by the generation thread itself. Compressed files are written by the threads of this stage,
+ * so compression overlaps with the generation of the following networks instead of adding to it. The number of files
+ * waiting for compression is bounded, a generation thread waits when the stage falls behind. The callback of a file,
+ * e.g. journaling its root (see ProgressJournal), only runs once all of its encodings are written.
+ */
+public class CompressionStage implements Closeable {
+    private static final Logger logger = Logger.getLogger(CompressionStage.class);
+
+    public static final String DEFLATE_DICTIONARY_FILE_NAME = "deflate-dictionary.bin";
+    public static final String GZIP_EXTENSION = ".gz";
+    public static final String DEFLATE_EXTENSION = ".deflate";
+
+    private static final int PENDING_FILES_PER_THREAD = 64;
+
+    private final ContentManifest contentManifest;
+    private final boolean writeJson;
+    private final boolean writeGzip;
+    // null without the "deflate" encoding
+    private final byte[] deflateDictionary;
+    // null when only plain files are written
+    private final ExecutorService executor;
+    private final int maxPendingFiles;
+    private final Semaphore pendingFiles;
+
+    private final LongAdder compressedFiles = new LongAdder();
+    private final LongAdder failedFiles = new LongAdder();
+    private final LongAdder jsonBytes = new LongAdder();
+    private final LongAdder gzipBytes = new LongAdder();
+    private final LongAdder deflateBytes = new LongAdder();
+    // the first error of a callback run by a compression thread, thrown by flush
+    private final AtomicReference<RuntimeException> callbackError = new AtomicReference<>();
+
+    private CompressionStage(ContentManifest contentManifest, List<String> encodings, byte[] deflateDictionary, int numberOfThreads) {
+        this.contentManifest = contentManifest;
+        this.writeJson = encodings.contains(NetworkMaker.ENCODING_JSON);
+        this.writeGzip = encodings.contains(NetworkMaker.ENCODING_GZIP);
+        this.deflateDictionary = deflateDictionary;
+        boolean isCompressing = writeGzip || deflateDictionary != null;
+        this.executor = isCompressing ? Executors.newFixedThreadPool(numberOfThreads) : null;
+        this.maxPendingFiles = numberOfThreads * PENDING_FILES_PER_THREAD;
+        this.pendingFiles = new Semaphore(maxPendingFiles);
+    }
+
+    /**
+     * @param keepExisting      whether the files not written by this run are still valid, as in an incremental run
+     * @param writeSharedFiles whether this process writes the files shared by all shards, i.e. the deflate dictionary
+     */
+    public static CompressionStage open(Args parsedArgs, SubstanceGraph graph, boolean keepExisting, boolean writeSharedFiles) throws IOException {
+        ContentManifest contentManifest = ContentManifest.open(parsedArgs, keepExisting);
+        byte[] deflateDictionary = null;
+        if (parsedArgs.encodings.contains(NetworkMaker.ENCODING_DEFLATE)) {
+            deflateDictionary = getDeflateDictionary(parsedArgs, graph, keepExisting);
+            if (writeSharedFiles) {
+                contentManifest.write(DEFLATE_DICTIONARY_FILE_NAME, deflateDictionary);
+            }
+        }
+        return new CompressionStage(contentManifest, parsedArgs.encodings, deflateDictionary, parsedArgs.numberOfThreads);
+    }
+
+    // The files kept from a previous run can only be decoded with the dictionary they were compressed with
+    private static byte[] getDeflateDictionary(Args parsedArgs, SubstanceGraph graph, boolean keepExisting) throws IOException {
+        File dictionaryFile = new File(parsedArgs.outputDirectory, DEFLATE_DICTIONARY_FILE_NAME);
+        if ((keepExisting || parsedArgs.resume) && dictionaryFile.exists()) {
+            logger.debug("Using deflate dictionary " + dictionaryFile.getAbsolutePath());
+            return Files.readAllBytes(dictionaryFile.toPath());
+        }
+        return DeflateDictionary.train(parsedArgs, graph);
+    }
+
+    public static String getExtension(String encoding) {
+        if (NetworkMaker.ENCODING_GZIP.equals(encoding)) {
+            return GZIP_EXTENSION;
+        }
+        if (NetworkMaker.ENCODING_DEFLATE.equals(encoding)) {
+            return DEFLATE_EXTENSION;
+        }
+        return "";
+    }
+
+    /**
+     * @return the path of the plain json file of a file written by the stage
+     */
+    public static String getJsonPath(String path) {
+        for (String extension : new String[]{GZIP_EXTENSION, DEFLATE_EXTENSION}) {
+            if (path.endsWith(extension)) {
+                return path.substring(0, path.length() - extension.length());
+            }
+        }
+        return path;
+    }
+
+    private List<String> getPaths(String path) {
+        List<String> paths = new ArrayList<>(3);
+        if (writeJson) {
+            paths.add(path);
+        }
+        if (writeGzip) {
+            paths.add(path + GZIP_EXTENSION);
+        }
+        if (deflateDictionary != null) {
+            paths.add(path + DEFLATE_EXTENSION);
+        }
+        return paths;
+    }
+
+    public long write(String path, ContentManifest.Content json) throws IOException {
+        return write(path, json, () -> {
+        });
+    }
+
+    /**
+     * Writes the plain file and queues the compressed ones, which are compressed from the plain file on disk, or from
+     * a temporary file without the "json" encoding, so the json is never held in memory.
+     *
+     * @param onWritten run once all encodings of the file are written, not at all when one of them fails
+     * @return the number of bytes of the plain file written, compressed files are written later
+     */
+    public long write(String path, ContentManifest.Content json, Runnable onWritten) throws IOException {
+        if (executor == null) {
+            long bytesWritten = contentManifest.write(path, json);
+            onWritten.run();
+            return bytesWritten;
+        }
+
+        long bytesWritten = 0;
+        File jsonFile;
+        if (writeJson) {
+            bytesWritten = contentManifest.write(path, json);
+            jsonFile = contentManifest.getFile(path);
+        } else {
+            jsonFile = Utils.getTemporaryFile(contentManifest.getFile(path));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(jsonFile.toPath()))) {
+                json.writeTo(out);
+            } catch (IOException | RuntimeException e) {
+                jsonFile.delete();
+                throw e;
+            }
+        }
+
+        try {
+            pendingFiles.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deleteTemporaryFile(jsonFile);
+            throw new InterruptedIOException("Interrupted while waiting for the compression of " + path);
+        }
+        executor.execute(() -> {
+            try {
+                if (compress(path, jsonFile)) {
+                    onWritten.run();
+                }
+            } catch (RuntimeException e) {
+                callbackError.compareAndSet(null, e);
+            } finally {
+                deleteTemporaryFile(jsonFile);
+                pendingFiles.release();
+            }
+        });
+        return bytesWritten;
+    }
+
+    private void deleteTemporaryFile(File jsonFile) {
+        if (!writeJson && !jsonFile.delete()) {
+            logger.error("Unable to delete temporary file " + jsonFile.getAbsolutePath());
+        }
+    }
+
+    private boolean compress(String path, File jsonFile) {
+        boolean isComplete = true;
+        if (writeGzip) {
+            String gzipPath = path + GZIP_EXTENSION;
+            try {
+                contentManifest.write(gzipPath, out -> gzip(jsonFile, out));
+                gzipBytes.add(contentManifest.getFile(gzipPath).length());
+            } catch (IOException | RuntimeException e) {
+                fail(gzipPath, e);
+                isComplete = false;
+            }
+        }
+        if (deflateDictionary != null) {
+            String deflatePath = path + DEFLATE_EXTENSION;
+            try {
+                contentManifest.write(deflatePath, out -> {
+                    try (InputStream in = Files.newInputStream(jsonFile.toPath())) {
+                        DeflateDictionary.compress(in, out, deflateDictionary);
+                    }
+                });
+                deflateBytes.add(contentManifest.getFile(deflatePath).length());
+            } catch (IOException | RuntimeException e) {
+                fail(deflatePath, e);
+                isComplete = false;
+            }
+        }
+        if (isComplete) {
+            jsonBytes.add(jsonFile.length());
+            compressedFiles.increment();
+        }
+        return isComplete;
+    }
+
+    // The file of the previous run no longer matches the plain file, so it is deleted instead of being published with it
+    private void fail(String path, Exception e) {
+        failedFiles.increment();
+        logger.error("Unable to write compressed file " + path + ": " + e.getMessage());
+        contentManifest.delete(path);
+    }
+
+    // GZIPOutputStream writes no file name and a zero modification time, so the same content gives the same file
+    private static void gzip(File file, OutputStream out) throws IOException {
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            Files.copy(file.toPath(), gzip);
+        }
+    }
+
+    /**
+     * Keeps the files written by an interrupted attempt of the run (see ProgressJournal).
+     *
+     * @return false when one of the files is missing, e.g. its compression didn't finish, so it has to be written again
+     */
+    public boolean keep(String path) throws IOException {
+        boolean isComplete = true;
+        for (String encodedPath : getPaths(path)) {
+            isComplete &= contentManifest.keep(encodedPath);
+        }
+        return isComplete;
+    }
+
+    public void delete(String path) {
+        for (String encodedPath : getPaths(path)) {
+            contentManifest.delete(encodedPath);
+        }
+    }
+
+    /**
+     * Waits for the files queued so far.
+     */
+    public void flush() throws IOException {
+        if (executor != null) {
+            try {
+                pendingFiles.acquire(maxPendingFiles);
+                pendingFiles.release(maxPendingFiles);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the compression of files");
+            }
+        }
+        RuntimeException error = callbackError.get();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Waits for the queued compressions and commits the ContentManifest.
+     *
+     * @throws IOException when compressed files could not be written, so the run fails instead of publishing without them
+     */
+    public void commit() throws IOException {
+        flush();
+        if (failedFiles.sum() > 0) {
+            throw new IOException("Unable to write " + failedFiles.sum() + " compressed files");
+        }
+        contentManifest.commit();
+    }
+
+    /**
+     * Waits for the queued compressions and closes the ContentManifest, which is left as it was without a commit.
+     */
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    logger.info("Waiting for the compression of " + (maxPendingFiles - pendingFiles.availablePermits()) + " files");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the compression of files");
+            }
+            logger.info("Compressed " + compressedFiles.sum() + " files of " + jsonBytes.sum() + " bytes"
+                    + (writeGzip ? ", gzip: " + gzipBytes.sum() + " bytes" + getRatio(gzipBytes) : "")
+                    + (deflateDictionary != null ? ", deflate: " + deflateBytes.sum() + " bytes" + getRatio(deflateBytes) : "")
+                    + ", failed: " + failedFiles.sum());
+        }
+        contentManifest.close();
+    }
+
+    private String getRatio(LongAdder compressedBytes) {
+        return jsonBytes.sum() > 0 ? " (" + compressedBytes.sum() * 100 / jsonBytes.sum() + "%)" : "";
+    }
+}
@@ -0,0 +1,349 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes and sizes of the files written into the output directory, so files whose content didn't change since the
+ * previous run are not rewritten and keep their modification time.
+ * <p>
+ * The manifest content-manifest.txt has a line "&lt;path&gt;\t&lt;hash&gt;\t&lt;size&gt;" per file, the hash being the
+ * CRC32 and the Adler32 of the content. When the run is committed, the manifest is rewritten and the paths of the files
+ * written with a new content are listed in changed-files.txt and the paths of the deleted files in removed-files.txt,
+ * one per line relative to the output directory, for the deploy step (e.g. rsync --files-from).
+ * <p>
+ * In a full run the files listed by the previous manifest which were not generated again belong to removed substances
+ * and are deleted on commit, in an incremental run they are kept. A run which fails before its commit deletes no file
+ * and leaves the entries of the files it didn't touch as they were, the files it rewrote or deleted lose their entries
+ * so the next run writes them again and lists them as changed. Every shard keeps its own manifest.
+ */
+public class ContentManifest implements Closeable {
+    private static final Logger logger = Logger.getLogger(ContentManifest.class);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static final String MANIFEST_FILE_NAME = "content-manifest";
+    public static final String CHANGED_FILES_FILE_NAME = "changed-files";
+    public static final String REMOVED_FILES_FILE_NAME = "removed-files";
+
+    private final File directory;
+    private final String nameSuffix;
+    private final boolean keepExisting;
+    private final Map<String, Entry> previousEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Paths written, kept or deleted by this run, including the failed writes which leave the previous file in place
+    private final Set<String> processedPaths = ConcurrentHashMap.newKeySet();
+    private final Set<String> deletedPaths = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger numberOfUnchangedFiles = new AtomicInteger();
+    private boolean isCommitted;
+
+    private ContentManifest(File directory, String nameSuffix, boolean keepExisting, Map<String, Entry> previousEntries) {
+        this.directory = directory;
+        this.nameSuffix = nameSuffix;
+        this.keepExisting = keepExisting;
+        this.previousEntries = previousEntries;
+    }
+
+    /**
+     * Opens the manifest of the output directory, or a new one when the directory has none.
+     *
+     * @param keepExisting whether the files not written by this run are still valid, as in an incremental run
+     */
+    public static ContentManifest open(Args parsedArgs, boolean keepExisting) {
+        String nameSuffix = parsedArgs.shard != null ? "-" + ShardManifest.getShardName(parsedArgs) + ".txt" : ".txt";
+        File manifestFile = new File(parsedArgs.outputDirectory, MANIFEST_FILE_NAME + nameSuffix);
+        Map<String, Entry> previousEntries = new HashMap<>();
+        if (manifestFile.exists()) {
+            try {
+                previousEntries = read(manifestFile);
+                logger.debug("Loaded content manifest of " + previousEntries.size() + " files from " + manifestFile.getAbsolutePath());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unable to read content manifest " + manifestFile.getAbsolutePath() + ", all files will be rewritten: " + e.getMessage());
+            }
+        }
+        return new ContentManifest(parsedArgs.outputDirectory, nameSuffix, keepExisting, previousEntries);
+    }
+
+    private static Map<String, Entry> read(File manifestFile) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t");
+                if (parts.length != 3) {
+                    throw new IOException("Invalid line: " + line);
+                }
+                entries.put(parts[0], new Entry(Long.parseUnsignedLong(parts[1], 16), Long.parseLong(parts[2])));
+            }
+        }
+        return entries;
+    }
+
+    public static long hash(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        Adler32 adler = new Adler32();
+        adler.update(content, 0, content.length);
+        return crc.getValue() << 32 | adler.getValue();
+    }
+
+    /**
+     * Content of a file written into the stream it is given, e.g. serialized by Jackson.
+     */
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    public File getFile(String path) {
+        return new File(directory, path);
+    }
+
+    /**
+     * Writes the content straight into a temporary file, hashing it on the way, which replaces the file unless the file
+     * already had this content.
+     *
+     * @param path the path of the file relative to the output directory, with "/" separators
+     * @return the number of bytes written, 0 when the file was unchanged
+     */
+    public long write(String path, Content content) throws IOException {
+        processedPaths.add(path);
+        File file = new File(directory, path);
+        File temporaryFile = Utils.getTemporaryFile(file);
+        Entry entry;
+        try {
+            HashingOutputStream hashingOut = new HashingOutputStream(Files.newOutputStream(temporaryFile.toPath()));
+            try (OutputStream out = new BufferedOutputStream(hashingOut, BUFFER_SIZE)) {
+                content.writeTo(out);
+            }
+            entry = hashingOut.getEntry();
+            if (entry.equals(previousEntries.get(path)) && file.length() == entry.size) {
+                Files.delete(temporaryFile.toPath());
+                entries.put(path, entry);
+                numberOfUnchangedFiles.incrementAndGet();
+                return 0;
+            }
+            Utils.moveAtomically(temporaryFile, file);
+        } catch (IOException | RuntimeException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+        entries.put(path, entry);
+        return entry.size;
+    }
+
+    /**
+     * Writes the file unless it already has this content.
+     *
+     * @param path the path of the file relative to the output directory, with "/" separators
+     * @return the number of bytes written, 0 when the file was unchanged
+     */
+    public long write(String path, byte[] content) throws IOException {
+        processedPaths.add(path);
+        Entry entry = new Entry(hash(content), content.length);
+        File file = new File(directory, path);
+        if (entry.equals(previousEntries.get(path)) && file.length() == content.length) {
+            entries.put(path, entry);
+            numberOfUnchangedFiles.incrementAndGet();
+            return 0;
+        }
+
+        File temporaryFile = Utils.getTemporaryFile(file);
+        try {
+            try (OutputStream out = Files.newOutputStream(temporaryFile.toPath())) {
+                out.write(content);
+            }
+            Utils.moveAtomically(temporaryFile, file);
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+        entries.put(path, entry);
+        return content.length;
+    }
+
+    /**
+     * Records a file written by an interrupted attempt of the run (see ProgressJournal) without writing it again.
+     *
+     * @return false when the file doesn't exist
+     */
+    public boolean keep(String path) throws IOException {
+        processedPaths.add(path);
+        File file = new File(directory, path);
+        if (!file.exists()) {
+            return false;
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+        entries.put(path, new Entry(hash(content), content.length));
+        return true;
+    }
+
+    public void delete(String path) {
+        processedPaths.add(path);
+        File file = new File(directory, path);
+        boolean exists = file.exists();
+        if (exists && !file.delete()) {
+            logger.error("Unable to delete file " + file.getAbsolutePath());
+            return;
+        }
+        entries.remove(path);
+        if (exists || previousEntries.containsKey(path)) {
+            deletedPaths.add(path);
+        }
+    }
+
+    /**
+     * Deletes the stale files of a full run and writes the manifest and the lists of changed and removed files, once all
+     * files of the run are written.
+     */
+    public void commit() throws IOException {
+        Map<String, Entry> manifestEntries = new TreeMap<>();
+        SortedSet<String> removedPaths = new TreeSet<>(deletedPaths);
+        for (Map.Entry<String, Entry> previousEntry : previousEntries.entrySet()) {
+            String path = previousEntry.getKey();
+            if (processedPaths.contains(path)) {
+                // a failed write leaves the previous file in place
+                if (!deletedPaths.contains(path)) {
+                    manifestEntries.put(path, previousEntry.getValue());
+                }
+            } else if (keepExisting) {
+                manifestEntries.put(path, previousEntry.getValue());
+            } else {
+                File file = new File(directory, path);
+                if (file.exists() && !file.delete()) {
+                    logger.error("Unable to delete stale file " + file.getAbsolutePath());
+                    manifestEntries.put(path, previousEntry.getValue());
+                    continue;
+                }
+                removedPaths.add(path);
+            }
+        }
+        manifestEntries.putAll(entries);
+
+        SortedSet<String> changedPaths = new TreeSet<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (!entry.getValue().equals(previousEntries.get(entry.getKey()))) {
+                changedPaths.add(entry.getKey());
+            }
+        }
+
+        writeManifest(manifestEntries);
+        writeLines(CHANGED_FILES_FILE_NAME, changedPaths);
+        writeLines(REMOVED_FILES_FILE_NAME, removedPaths);
+        logger.info("Changed files: " + changedPaths.size() + ", unchanged files: " + numberOfUnchangedFiles.get()
+                + ", removed files: " + removedPaths.size());
+        isCommitted = true;
+    }
+
+    /**
+     * Without a commit, e.g. when the run failed, only drops the entries of the files this run rewrote or deleted from
+     * the manifest, the other files and their entries stay as they were.
+     */
+    @Override
+    public void close() throws IOException {
+        if (isCommitted) {
+            return;
+        }
+        Map<String, Entry> manifestEntries = new TreeMap<>();
+        for (Map.Entry<String, Entry> previousEntry : previousEntries.entrySet()) {
+            String path = previousEntry.getKey();
+            if (!processedPaths.contains(path) || previousEntry.getValue().equals(entries.get(path))) {
+                manifestEntries.put(path, previousEntry.getValue());
+            }
+        }
+        writeManifest(manifestEntries);
+        logger.warn("Run was not completed, the content manifest keeps " + manifestEntries.size() + " of "
+                + previousEntries.size() + " files and the lists of changed and removed files were not written");
+    }
+
+    private void writeManifest(Map<String, Entry> manifestEntries) throws IOException {
+        List<String> manifestLines = new ArrayList<>(manifestEntries.size());
+        for (Map.Entry<String, Entry> entry : manifestEntries.entrySet()) {
+            manifestLines.add(entry.getKey() + "\t" + String.format("%016x", entry.getValue().hash) + "\t" + entry.getValue().size);
+        }
+        writeLines(MANIFEST_FILE_NAME, manifestLines);
+    }
+
+    private void writeLines(String name, Collection<String> lines) throws IOException {
+        File file = new File(directory, name + nameSuffix);
+        File temporaryFile = Utils.getTemporaryFile(file);
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        Utils.moveAtomically(temporaryFile, file);
+    }
+
+    // Computes the same hash as ContentManifest.hash while the content is written
+    private static final class HashingOutputStream extends FilterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private final Adler32 adler = new Adler32();
+        private long size;
+
+        HashingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            adler.update(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            adler.update(b, off, len);
+            size += len;
+        }
+
+        Entry getEntry() {
+            return new Entry(crc.getValue() << 32 | adler.getValue(), size);
+        }
+    }
+
+    private static final class Entry {
+        final long hash;
+        final long size;
+
+        Entry(long hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return hash == other.hash && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash) * 31 + Long.hashCode(size);
+        }
+    }
+}
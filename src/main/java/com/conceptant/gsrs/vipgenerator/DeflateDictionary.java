@@ -0,0 +1,151 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Preset dictionary of the "deflate" encoding, trained on sample networks, and the zlib compression with it.
+ * <p>
+ * A network file is too small for deflate to find many repeats of the field names, node types and link types within
+ * it, while the same fragments occur in nearly every file. They are put into the dictionary, which deflate treats as
+ * data preceding every file. The dictionary is written once to deflate-dictionary.bin and clients decode a
+ * &lt;uuid&gt;.json.deflate file with it as a zlib stream with a preset dictionary (e.g. Inflater.setDictionary or
+ * zlib's inflateSetDictionary, see decompress).
+ * <p>
+ * The samples are the networks of roots spread evenly over the graph, so every process generating a shard of the same
+ * dump with the same settings trains the same dictionary.
+ */
+public class DeflateDictionary {
+    private static final Logger logger = Logger.getLogger(DeflateDictionary.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // the window of deflate, farther bytes of the dictionary can't be referenced
+    public static final int MAX_SIZE = 32 * 1024;
+    private static final int NUMBER_OF_SAMPLE_NETWORKS = 256;
+
+    public static byte[] train(Args parsedArgs, SubstanceGraph graph) throws IOException {
+        ExpansionCache expansionCache = new ExpansionCache(graph, 0);
+        int numberOfSamples = Math.min(NUMBER_OF_SAMPLE_NETWORKS, graph.size());
+        List<String> samples = new ArrayList<>(numberOfSamples);
+        for (int i = 0; i < numberOfSamples; i++) {
+            int rootId = (int) ((long) i * graph.size() / numberOfSamples);
+            Network network = NetworkMaker.getNetwork(rootId, graph, expansionCache, parsedArgs.nestingLevel, parsedArgs.maxNumberOfElements,
+                    parsedArgs.maxNumberOfLinksPerNode, parsedArgs.expansionStrategy);
+            samples.add(mapper.writeValueAsString(network));
+        }
+        byte[] dictionary = train(samples);
+        logger.info("Trained deflate dictionary of " + dictionary.length + " bytes on " + samples.size() + " networks");
+        return dictionary;
+    }
+
+    /**
+     * Picks the json fragments saving the most bytes over all samples: fragments end after "," or "[", so a fragment is
+     * mostly one field with its value, e.g. "nodeType":"chemical (fetched)",. Only the first occurrence in a file
+     * benefits from the dictionary, so a fragment counts once per sample. The fragments saving the most go last, closest
+     * to the data.
+     */
+    public static byte[] train(List<String> samples) {
+        Map<String, Integer> numberOfSamplesOfFragments = new HashMap<>();
+        for (String sample : samples) {
+            Set<String> fragments = new HashSet<>();
+            int start = 0;
+            for (int i = 0; i < sample.length(); i++) {
+                char c = sample.charAt(i);
+                if (c == ',' || c == '[' || i == sample.length() - 1) {
+                    fragments.add(sample.substring(start, i + 1));
+                    start = i + 1;
+                }
+            }
+            for (String fragment : fragments) {
+                numberOfSamplesOfFragments.merge(fragment, 1, Integer::sum);
+            }
+        }
+
+        List<Fragment> fragments = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : numberOfSamplesOfFragments.entrySet()) {
+            // a fragment of a single sample is better found within that file
+            if (entry.getValue() > 1) {
+                byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                fragments.add(new Fragment(entry.getKey(), bytes, (long) entry.getValue() * bytes.length));
+            }
+        }
+        fragments.sort(Comparator.comparingLong((Fragment fragment) -> -fragment.savedBytes).thenComparing(fragment -> fragment.text));
+
+        Deque<byte[]> selected = new ArrayDeque<>();
+        int size = 0;
+        for (Fragment fragment : fragments) {
+            if (size + fragment.bytes.length <= MAX_SIZE) {
+                selected.push(fragment.bytes);
+                size += fragment.bytes.length;
+            }
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (byte[] bytes : selected) {
+            dictionary.write(bytes, 0, bytes.length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    // Leaves the output stream open
+    public static void compress(InputStream in, OutputStream out, byte[] dictionary) throws IOException {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setDictionary(dictionary);
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 8192);
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                deflaterOut.write(buffer, 0, length);
+            }
+            deflaterOut.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] decompress(byte[] compressed, byte[] dictionary) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary);
+                } else if (length == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated deflate stream");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid deflate stream: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class Fragment {
+        final String text;
+        final byte[] bytes;
+        final long savedBytes;
+
+        Fragment(String text, byte[] bytes, long savedBytes) {
+            this.text = text;
+            this.bytes = bytes;
+            this.savedBytes = savedBytes;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Writes the nodes of all substances once into a dictionary sharded by the first two characters of the uuid
+ * (nodes/&lt;prefix&gt;.json, an object of uuid -&gt; node) and slim &lt;uuid&gt;.json network files.
+ * <p>
+ * Nodes of a slim network only have "id" plus the parts that depend on the network: "fetchStatus" and
+ * "numberOfRelationships" when they are set. The full node is the dictionary node with nodeType
+ * "&lt;nodeType&gt; (&lt;fetchStatus&gt;)", tags [that nodeType, fetchStatus] and obj["Number Of Relationships"].
+ * Links, tags and legend are the same as in the regular network files.
+ * <p>
+ * Network and dictionary files are written with their compressed variants (see CompressionStage), the files whose
+ * content didn't change are left untouched (see ContentManifest).
+ */
+public class DictionaryNetworkWriter implements NetworkWriter {
+    private static final Logger logger = Logger.getLogger(DictionaryNetworkWriter.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static final String DICTIONARY_DIRECTORY_NAME = "nodes";
+
+    private final File outputDirectory;
+    private final CompressionStage compressionStage;
+    private final SubstanceGraph graph;
+    private final boolean writeDictionary;
+
+    public DictionaryNetworkWriter(File outputDirectory, CompressionStage compressionStage, SubstanceGraph graph) {
+        this(outputDirectory, compressionStage, graph, true);
+    }
+
+    // Shards of a sharded run load the same graph, so only one of them writes the dictionary
+    public DictionaryNetworkWriter(File outputDirectory, CompressionStage compressionStage, SubstanceGraph graph, boolean writeDictionary) {
+        this.outputDirectory = outputDirectory;
+        this.compressionStage = compressionStage;
+        this.graph = graph;
+        this.writeDictionary = writeDictionary;
+    }
+
+    public static String getDictionaryShard(String uuid) {
+        return uuid.length() >= 2 ? uuid.substring(0, 2).toLowerCase() : "_";
+    }
+
+    @Override
+    public long write(String uuid, Network network, Runnable onWritten) throws IOException {
+        List<Map<String, Object>> slimNodes = new ArrayList<>();
+        for (NetworkNode node : network.nodes) {
+            Map<String, Object> slimNode = new LinkedHashMap<>();
+            slimNode.put("id", node.getUuid());
+            Utils.putIfNotNull(slimNode, "fetchStatus", node.getFetchStatus());
+            Utils.putIfNotNull(slimNode, "numberOfRelationships", node.getNumberOfRelationships());
+            slimNodes.add(slimNode);
+        }
+
+        Map<String, Object> slimNetwork = new LinkedHashMap<>();
+        slimNetwork.put("nodes", slimNodes);
+        slimNetwork.put("links", network.links);
+        slimNetwork.put("tags", network.tags);
+        slimNetwork.put("legend", network.legend);
+
+        return compressionStage.write(uuid + ".json", out -> mapper.writeValue(out, slimNetwork), onWritten);
+    }
+
+    @Override
+    public boolean keep(String uuid) throws IOException {
+        return compressionStage.keep(uuid + ".json");
+    }
+
+    @Override
+    public void delete(String uuid) {
+        compressionStage.delete(uuid + ".json");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        compressionStage.flush();
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if (writeDictionary) {
+            writeDictionary();
+        }
+        compressionStage.commit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        compressionStage.close();
+    }
+
+    // The dictionary is rewritten from the whole graph, so it also reflects substances removed in incremental runs
+    private void writeDictionary() throws IOException {
+        Map<String, List<Integer>> idsByShard = new TreeMap<>();
+        for (int id = 0; id < graph.size(); id++) {
+            idsByShard.computeIfAbsent(getDictionaryShard(graph.getUuid(id)), shard -> new ArrayList<>()).add(id);
+        }
+
+        File dictionaryDirectory = new File(outputDirectory, DICTIONARY_DIRECTORY_NAME);
+        Utils.createDirIfNotExists(dictionaryDirectory);
+        Set<String> shardFileNames = new HashSet<>();
+        for (Map.Entry<String, List<Integer>> entry : idsByShard.entrySet()) {
+            String shardFileName = entry.getKey() + ".json";
+            shardFileNames.add(shardFileName);
+            compressionStage.write(DICTIONARY_DIRECTORY_NAME + "/" + shardFileName, out -> {
+                try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+                    generator.writeStartObject();
+                    for (int id : entry.getValue()) {
+                        generator.writeFieldName(graph.getUuid(id));
+                        generator.writeRawValue(graph.getNodeJson(id));
+                    }
+                    generator.writeEndObject();
+                }
+            });
+        }
+
+        Set<String> staleShardFileNames = new TreeSet<>();
+        File[] existingFiles = dictionaryDirectory.listFiles();
+        if (existingFiles != null) {
+            for (File file : existingFiles) {
+                // the compressed files of the shards just written may still be in progress
+                if (file.getName().endsWith(Utils.TEMPORARY_FILE_SUFFIX)) {
+                    continue;
+                }
+                String shardFileName = CompressionStage.getJsonPath(file.getName());
+                if (!shardFileNames.contains(shardFileName)) {
+                    staleShardFileNames.add(shardFileName);
+                }
+            }
+        }
+        for (String shardFileName : staleShardFileNames) {
+            compressionStage.delete(DICTIONARY_DIRECTORY_NAME + "/" + shardFileName);
+        }
+        logger.debug("Written node dictionary of " + graph.size() + " nodes in " + idsByShard.size() + " files");
+    }
+}
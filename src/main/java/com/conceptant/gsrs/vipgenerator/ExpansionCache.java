@@ -0,0 +1,149 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Nodes parsed while expanding networks, shared by all roots and generation threads.
+ * <p>
+ * Candidate neighbors and link records of a node are already precomputed in the SubstanceGraph, the remaining cost of
+ * an expansion is parsing the json of every neighbor node. Neighboring roots expand mostly the same nodes, so parsed
+ * SubstanceNodes are kept and shared by all networks, which only wrap them in their own NetworkNode.
+ * <p>
+ * The cache is split into segments, each one an LRU map guarded by its own lock, which evicts its least recently used
+ * nodes when the estimated size of its nodes exceeds its share of the memory budget.
+ * <p>
+ * Admission is frequency-aware, as in TinyLFU: every lookup counts an access of the node in a small saturating counter,
+ * and a full segment only admits a parsed node when it was accessed more often than the least recently used node it
+ * would evict. Hubs expanded by many roots stay cached while nodes seen once don't push them out. The counters of a
+ * segment are halved after a number of accesses proportional to its number of ids, so old popularity fades.
+ */
+public class ExpansionCache {
+    private static final Logger logger = Logger.getLogger(ExpansionCache.class);
+
+    private static final int NUMBER_OF_SEGMENTS = 64;
+    // Rough heap size of a parsed node per character of its json: the maps, their entries and the strings
+    private static final int BYTES_PER_JSON_CHARACTER = 8;
+    private static final int BYTES_PER_ENTRY = 64;
+    private static final int MAX_FREQUENCY = 15;
+    // accesses of a segment between two halvings of its counters, per id of the segment
+    private static final int ACCESSES_PER_ID = 8;
+
+    private final SubstanceGraph graph;
+    private final long maxBytesPerSegment;
+    private final Segment[] segments;
+    private final byte[] frequencies;
+    private final int accessesPerAging;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param maxBytes the memory budget of the cache, 0 disables caching
+     */
+    public ExpansionCache(SubstanceGraph graph, long maxBytes) {
+        this.graph = graph;
+        this.maxBytesPerSegment = maxBytes / NUMBER_OF_SEGMENTS;
+        segments = new Segment[maxBytes > 0 ? NUMBER_OF_SEGMENTS : 0];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(i);
+        }
+        frequencies = new byte[maxBytes > 0 ? graph.size() : 0];
+        accessesPerAging = Math.max(1, graph.size() / NUMBER_OF_SEGMENTS) * ACCESSES_PER_ID;
+    }
+
+    /**
+     * @return a new network node of the substance with the given id
+     */
+    public NetworkNode getNode(int id) throws IOException {
+        if (segments.length == 0) {
+            return new NetworkNode(id, SubstanceNode.fromJson(graph.getNodeJson(id)));
+        }
+
+        Segment segment = segments[id & (NUMBER_OF_SEGMENTS - 1)];
+        SubstanceNode substance;
+        synchronized (segment) {
+            substance = segment.get(id);
+            recordAccess(segment, id);
+        }
+        if (substance != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            substance = SubstanceNode.fromJson(graph.getNodeJson(id));
+            long size = getEstimatedSize(id);
+            synchronized (segment) {
+                if (!admit(segment, id, size)) {
+                    rejections.increment();
+                } else if (segment.putIfAbsent(id, substance) == null) {
+                    segment.size += size;
+                    evict(segment);
+                }
+            }
+        }
+        return new NetworkNode(id, substance);
+    }
+
+    private void recordAccess(Segment segment, int id) {
+        if (frequencies[id] < MAX_FREQUENCY) {
+            frequencies[id]++;
+        }
+        if (++segment.accesses >= accessesPerAging) {
+            segment.accesses = 0;
+            for (int i = segment.index; i < frequencies.length; i += NUMBER_OF_SEGMENTS) {
+                frequencies[i] >>= 1;
+            }
+        }
+    }
+
+    // A node fitting into the budget is always admitted, otherwise it has to be more popular than the node it evicts
+    private boolean admit(Segment segment, int id, long size) {
+        if (segment.size + size <= maxBytesPerSegment || segment.isEmpty()) {
+            return true;
+        }
+        int victim = segment.keySet().iterator().next();
+        return frequencies[id] > frequencies[victim];
+    }
+
+    private void evict(Segment segment) {
+        Iterator<Integer> ids = segment.keySet().iterator();
+        while (segment.size > maxBytesPerSegment && ids.hasNext()) {
+            int id = ids.next();
+            ids.remove();
+            segment.size -= getEstimatedSize(id);
+            evictions.increment();
+        }
+    }
+
+    private long getEstimatedSize(int id) {
+        return BYTES_PER_ENTRY + (long) graph.getNodeJsonLength(id) * BYTES_PER_JSON_CHARACTER;
+    }
+
+    public void logStats() {
+        if (segments.length == 0) {
+            return;
+        }
+        long total = hits.sum() + misses.sum();
+        logger.info("Expansion cache hits: " + hits.sum() + " of " + total
+                + (total > 0 ? " (" + hits.sum() * 100 / total + "%)" : "") + ", misses: " + misses.sum()
+                + ", evictions: " + evictions.sum() + ", rejected: " + rejections.sum());
+    }
+
+    private static class Segment extends LinkedHashMap<Integer, SubstanceNode> {
+        private static final long serialVersionUID = 1L;
+
+        final int index;
+        long size;
+        int accesses;
+
+        Segment(int index) {
+            super(16, 0.75f, true);
+            this.index = index;
+        }
+    }
+}
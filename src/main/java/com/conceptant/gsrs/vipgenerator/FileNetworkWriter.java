@@ -0,0 +1,49 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Writes every network into its own &lt;uuid&gt;.json file and its compressed variants (see CompressionStage), leaving
+ * the files whose content didn't change untouched (see ContentManifest).
+ */
+public class FileNetworkWriter implements NetworkWriter {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final CompressionStage compressionStage;
+
+    public FileNetworkWriter(CompressionStage compressionStage) {
+        this.compressionStage = compressionStage;
+    }
+
+    @Override
+    public long write(String uuid, Network network, Runnable onWritten) throws IOException {
+        return compressionStage.write(uuid + ".json", out -> mapper.writeValue(out, network), onWritten);
+    }
+
+    @Override
+    public boolean keep(String uuid) throws IOException {
+        return compressionStage.keep(uuid + ".json");
+    }
+
+    @Override
+    public void delete(String uuid) {
+        compressionStage.delete(uuid + ".json");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        compressionStage.flush();
+    }
+
+    @Override
+    public void commit() throws IOException {
+        compressionStage.commit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        compressionStage.close();
+    }
+}
@@ -0,0 +1,124 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Differences between the graphs of two GSRS releases and the roots whose networks have to be regenerated.
+ * <p>
+ * A network of a root contains every substance reachable from it within nestingLevel links, so a root is affected
+ * when a changed, added or removed substance is reachable within nestingLevel links in either release.
+ */
+public class GraphDiff {
+    // Ids in the current graph
+    public final BitSet changedSubstances;
+    public final BitSet affectedRoots;
+    public final List<String> removedUuids;
+
+    private GraphDiff(BitSet changedSubstances, BitSet affectedRoots, List<String> removedUuids) {
+        this.changedSubstances = changedSubstances;
+        this.affectedRoots = affectedRoots;
+        this.removedUuids = removedUuids;
+    }
+
+    public static GraphDiff compare(SubstanceGraph previous, SubstanceGraph current, int nestingLevel) {
+        BitSet changed = new BitSet(current.size());
+        BitSet previousChanged = new BitSet(previous.size());
+        for (int id = 0; id < current.size(); id++) {
+            int previousId = previous.getId(current.getUuid(id));
+            if (previousId == SubstanceGraph.MISSING_TARGET) {
+                changed.set(id);
+            } else if (!isSameSubstance(previous, previousId, current, id)) {
+                changed.set(id);
+                previousChanged.set(previousId);
+            }
+        }
+
+        List<String> removedUuids = new ArrayList<>();
+        for (int previousId = 0; previousId < previous.size(); previousId++) {
+            String uuid = previous.getUuid(previousId);
+            if (current.getId(uuid) == SubstanceGraph.MISSING_TARGET) {
+                removedUuids.add(uuid);
+                previousChanged.set(previousId);
+            }
+        }
+
+        BitSet affected = getReachingWithin(current, changed, nestingLevel);
+        BitSet previousAffected = getReachingWithin(previous, previousChanged, nestingLevel);
+        for (int previousId = previousAffected.nextSetBit(0); previousId >= 0; previousId = previousAffected.nextSetBit(previousId + 1)) {
+            int id = current.getId(previous.getUuid(previousId));
+            if (id != SubstanceGraph.MISSING_TARGET) {
+                affected.set(id);
+            }
+        }
+
+        return new GraphDiff(changed, affected, removedUuids);
+    }
+
+    private static boolean isSameSubstance(SubstanceGraph previous, int previousId, SubstanceGraph current, int id) {
+        if (!Objects.equals(previous.getNodeJson(previousId), current.getNodeJson(id))
+                || previous.getDegree(previousId) != current.getDegree(id)) {
+            return false;
+        }
+
+        int previousEdge = previous.getEdgeStart(previousId);
+        for (int edge = current.getEdgeStart(id); edge < current.getEdgeEnd(id); edge++, previousEdge++) {
+            // targets are compared by uuid, so a reference that became resolvable counts as a change as well
+            boolean isSameLink = Objects.equals(getTargetUuid(previous, previousEdge), getTargetUuid(current, edge))
+                    && previous.getLinkRecord(previousEdge).equals(current.getLinkRecord(edge));
+            if (!isSameLink) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getTargetUuid(SubstanceGraph graph, int edge) {
+        int target = graph.getEdgeTarget(edge);
+        return target == SubstanceGraph.MISSING_TARGET ? null : graph.getUuid(target);
+    }
+
+    // Walks the links backwards from the targets, so the result contains every substance reaching one of them within maxDistance links
+    private static BitSet getReachingWithin(SubstanceGraph graph, BitSet targets, int maxDistance) {
+        int numberOfNodes = graph.size();
+        int[] incomingOffsets = new int[numberOfNodes + 1];
+        for (int edge = 0; edge < graph.getNumberOfEdges(); edge++) {
+            int target = graph.getEdgeTarget(edge);
+            if (target != SubstanceGraph.MISSING_TARGET) {
+                incomingOffsets[target + 1]++;
+            }
+        }
+        for (int id = 0; id < numberOfNodes; id++) {
+            incomingOffsets[id + 1] += incomingOffsets[id];
+        }
+        int[] incomingSources = new int[incomingOffsets[numberOfNodes]];
+        int[] fill = new int[numberOfNodes];
+        for (int source = 0; source < numberOfNodes; source++) {
+            for (int edge = graph.getEdgeStart(source); edge < graph.getEdgeEnd(source); edge++) {
+                int target = graph.getEdgeTarget(edge);
+                if (target != SubstanceGraph.MISSING_TARGET) {
+                    incomingSources[incomingOffsets[target] + fill[target]++] = source;
+                }
+            }
+        }
+
+        BitSet reached = (BitSet) targets.clone();
+        BitSet frontier = (BitSet) targets.clone();
+        for (int distance = 0; distance < maxDistance && !frontier.isEmpty(); distance++) {
+            BitSet next = new BitSet(numberOfNodes);
+            for (int id = frontier.nextSetBit(0); id >= 0; id = frontier.nextSetBit(id + 1)) {
+                for (int i = incomingOffsets[id]; i < incomingOffsets[id + 1]; i++) {
+                    int source = incomingSources[i];
+                    if (!reached.get(source)) {
+                        reached.set(source);
+                        next.set(source);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return reached;
+    }
+}
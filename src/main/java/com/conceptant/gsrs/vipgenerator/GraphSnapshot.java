@@ -0,0 +1,256 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary copy of a loaded SubstanceGraph, so repeated runs against the same dump skip decompression and parsing.
+ * The snapshot records the size and CRC32 of the dump it was built from and is ignored when either differs.
+ * <p>
+ * Layout (big-endian): header, uuids and node jsons, edge offsets and targets, link string table, link string indexes.
+ * Strings are stored as an int byte length (-1 for null) followed by UTF-8 bytes. The snapshot is read through
+ * mappings of up to WINDOW_SIZE bytes, since a single mapping is limited to 2 GB and the snapshot of a large dump isn't.
+ */
+public class GraphSnapshot {
+    private static final Logger logger = Logger.getLogger(GraphSnapshot.class);
+
+    private static final long MAGIC = 0x47535253534E4150L; // "GSRSSNAP"
+    private static final int VERSION = 1;
+    private static final int NULL_STRING = -1;
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    public static long getChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    public static void write(SubstanceGraph graph, File snapshotFile, long dumpSize, long dumpChecksum) throws IOException {
+        File tmpFile = new File(snapshotFile.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(dumpSize);
+            out.writeLong(dumpChecksum);
+
+            int numberOfNodes = graph.size();
+            int numberOfEdges = graph.getNumberOfEdges();
+            out.writeInt(numberOfNodes);
+            out.writeInt(numberOfEdges);
+
+            for (int id = 0; id < numberOfNodes; id++) {
+                writeString(out, graph.getUuid(id));
+                writeString(out, graph.getNodeJson(id));
+            }
+
+            for (int id = 0; id < numberOfNodes; id++) {
+                out.writeInt(graph.getEdgeStart(id));
+            }
+            out.writeInt(numberOfEdges);
+            for (int edge = 0; edge < numberOfEdges; edge++) {
+                out.writeInt(graph.getEdgeTarget(edge));
+            }
+
+            // Link names and types repeat a lot, so every distinct string is written once and edges refer to it
+            Map<String, Integer> stringIndexes = new LinkedHashMap<>();
+            int[] linkStrings = new int[numberOfEdges * 4];
+            for (int edge = 0; edge < numberOfEdges; edge++) {
+                LinkRecord link = graph.getLinkRecord(edge);
+                linkStrings[edge * 4] = indexOf(stringIndexes, link.name);
+                linkStrings[edge * 4 + 1] = indexOf(stringIndexes, link.linkType);
+                linkStrings[edge * 4 + 2] = indexOf(stringIndexes, link.pathType);
+                linkStrings[edge * 4 + 3] = indexOf(stringIndexes, link.uuid);
+            }
+            out.writeInt(stringIndexes.size());
+            for (String value : stringIndexes.keySet()) {
+                writeString(out, value);
+            }
+            for (int index : linkStrings) {
+                out.writeInt(index);
+            }
+        }
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static boolean isSnapshot(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 8 && in.readLong() == MAGIC;
+        }
+    }
+
+    /**
+     * Reads the snapshot without checking which dump it was built from.
+     */
+    public static SubstanceGraph read(File snapshotFile) throws IOException {
+        SubstanceGraph graph = readGraph(snapshotFile, null, null);
+        if (graph == null) {
+            throw new IOException("Unable to read snapshot " + snapshotFile);
+        }
+        return graph;
+    }
+
+    /**
+     * @return the graph stored in the snapshot or null when the snapshot is missing, unreadable or built from another dump
+     */
+    public static SubstanceGraph read(File snapshotFile, long dumpSize, long dumpChecksum) {
+        return readGraph(snapshotFile, dumpSize, dumpChecksum);
+    }
+
+    private static SubstanceGraph readGraph(File snapshotFile, Long dumpSize, Long dumpChecksum) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedInput buffer = new MappedInput(channel);
+
+            if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+                logger.info("Snapshot " + snapshotFile + " has unsupported format, it will be rebuilt");
+                return null;
+            }
+            long snapshotDumpSize = buffer.getLong();
+            long snapshotDumpChecksum = buffer.getLong();
+            if (dumpSize != null && (snapshotDumpSize != dumpSize || snapshotDumpChecksum != dumpChecksum)) {
+                logger.info("Snapshot " + snapshotFile + " was built from another dump, it will be rebuilt");
+                return null;
+            }
+
+            int numberOfNodes = buffer.getInt();
+            int numberOfEdges = buffer.getInt();
+
+            UuidIndex ids = new UuidIndex(numberOfNodes);
+            String[] uuids = new String[numberOfNodes];
+            String[] nodes = new String[numberOfNodes];
+            for (int id = 0; id < numberOfNodes; id++) {
+                uuids[id] = buffer.getString();
+                nodes[id] = buffer.getString();
+                ids.putIfAbsent(uuids[id], id);
+            }
+
+            int[] edgeOffsets = new int[numberOfNodes + 1];
+            buffer.getInts(edgeOffsets);
+            int[] edgeTargets = new int[numberOfEdges];
+            buffer.getInts(edgeTargets);
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = buffer.getString();
+            }
+            int[] linkStrings = new int[numberOfEdges * 4];
+            buffer.getInts(linkStrings);
+
+            LinkRecord[] linkRecords = new LinkRecord[numberOfEdges];
+            for (int edge = 0; edge < numberOfEdges; edge++) {
+                linkRecords[edge] = new LinkRecord(
+                        stringAt(strings, linkStrings[edge * 4]),
+                        stringAt(strings, linkStrings[edge * 4 + 1]),
+                        stringAt(strings, linkStrings[edge * 4 + 2]),
+                        stringAt(strings, linkStrings[edge * 4 + 3]));
+            }
+
+            return new SubstanceGraph(ids, uuids, nodes, edgeOffsets, edgeTargets, linkRecords);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to read snapshot " + snapshotFile + ", it will be rebuilt: " + e);
+            return null;
+        }
+    }
+
+    private static int indexOf(Map<String, Integer> stringIndexes, String value) {
+        if (value == null) {
+            return NULL_STRING;
+        }
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = stringIndexes.size();
+            stringIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    private static String stringAt(String[] strings, int index) {
+        return index == NULL_STRING ? null : strings[index];
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Sequential reads through a window of the file, mapped again from the current position when a value doesn't fit
+    private static class MappedInput {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedInput(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        private void ensure(int length) throws IOException {
+            if (window != null && window.remaining() >= length) {
+                return;
+            }
+            long position = window != null ? windowStart + window.position() : 0;
+            if (length > WINDOW_SIZE || size - position < length) {
+                throw new EOFException("Unable to read " + length + " bytes at " + position + " of " + size);
+            }
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        void getInts(int[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(4);
+                int count = Math.min(values.length - offset, window.remaining() / 4);
+                window.asIntBuffer().get(values, offset, count);
+                window.position(window.position() + count * 4);
+                offset += count;
+            }
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            if (length == NULL_STRING) {
+                return null;
+            }
+            ensure(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Attributes of one reference of a substance, computed once at ingest and shared by the NetworkLinks of all networks.
+ */
+public class LinkRecord {
+    // "n" of the link: the name of the relationship or its type when there is no name
+    public final String name;
+    // "linkType" and "Link Type": the type of the relationship
+    public final String linkType;
+    // "TYPE": the kind of reference given by the rule matching its path, see LinkTypeRules
+    public final String pathType;
+    // "UUID": the uuid of the relationship
+    public final String uuid;
+
+    public LinkRecord(String name, String linkType, String pathType, String uuid) {
+        this.name = name;
+        this.linkType = linkType;
+        this.pathType = pathType;
+        this.uuid = uuid;
+    }
+
+    public Map<String, Object> toLink(String sourceUuid, String targetUuid) {
+        Map<String, Object> link = new LinkedHashMap<>();
+        link.put("source", sourceUuid);
+        link.put("target", targetUuid);
+        Utils.putIfNotNull(link, "n", name);
+
+        link.put("linkType", linkType);
+        if (linkType != null) {
+            Set<String> tags = new LinkedHashSet<>();
+            tags.add(linkType);
+            link.put("tags", tags);
+        }
+
+        Map<String, String> linkObj = new LinkedHashMap<>();
+        linkObj.put("Link Type", linkType);
+        Utils.putIfNotNull(linkObj, "TYPE", pathType);
+        Utils.putIfNotNull(linkObj, "UUID", uuid);
+        link.put("obj", linkObj);
+
+        return link;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LinkRecord)) {
+            return false;
+        }
+        LinkRecord that = (LinkRecord) o;
+        return Objects.equals(name, that.name) && Objects.equals(linkType, that.linkType)
+                && Objects.equals(pathType, that.pathType) && Objects.equals(uuid, that.uuid);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, linkType, pathType, uuid);
+    }
+}
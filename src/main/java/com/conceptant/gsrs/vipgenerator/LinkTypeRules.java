@@ -0,0 +1,244 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Paths of the references of a substance and their link types, loaded from link-types.properties (or the file of the
+ * --link-types option) and compiled into a trie over path segments.
+ * <p>
+ * SubstanceParser walks the trie while streaming a record: fields and arrays without a rule below them are skipped
+ * without being parsed, and only objects with a referencing field are read as a tree. Enabling more link families
+ * adds branches to the trie instead of another test for every reference.
+ */
+public class LinkTypeRules {
+    public static final String DEFAULT_RULES_RESOURCE = "/link-types.properties";
+
+    private static final String ANY_ELEMENT = "[*]";
+
+    private static LinkTypeRules defaultRules;
+
+    private final State root = new State(false);
+    private final long fingerprint;
+
+    private LinkTypeRules(Properties rules) {
+        CRC32 crc = new CRC32();
+        for (String path : new TreeSet<>(rules.stringPropertyNames())) {
+            String linkType = rules.getProperty(path).trim();
+            List<String> segments = parsePath(path);
+            // the record itself isn't a reference, a rule needs at least the field holding it and the reference
+            if (segments.size() < 2) {
+                throw new IllegalArgumentException(path);
+            }
+            State state = root;
+            for (String segment : segments) {
+                state = state.getOrAddChild(segment);
+            }
+            state.linkType = linkType;
+            crc.update((path + "=" + linkType + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        root.compile();
+        this.fingerprint = crc.getValue();
+    }
+
+    public static synchronized LinkTypeRules getDefault() {
+        if (defaultRules == null) {
+            try (InputStream in = LinkTypeRules.class.getResourceAsStream(DEFAULT_RULES_RESOURCE)) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing resource " + DEFAULT_RULES_RESOURCE);
+                }
+                defaultRules = load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return defaultRules;
+    }
+
+    /**
+     * @param rulesFile the rules file, null for the default rules
+     */
+    public static LinkTypeRules load(File rulesFile) throws IOException {
+        if (rulesFile == null) {
+            return getDefault();
+        }
+        try (InputStream in = new FileInputStream(rulesFile)) {
+            return load(in);
+        }
+    }
+
+    public static LinkTypeRules load(InputStream in) throws IOException {
+        Properties rules = new Properties();
+        rules.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            return new LinkTypeRules(rules);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid link type rule: " + e.getMessage(), e);
+        }
+    }
+
+    // Accepts the dot notation of the rules ("$.a.b[*].c") and the bracket notation of JsonPath ("$['a']['b'][0]['c']")
+    static List<String> parsePath(String path) {
+        if (!path.startsWith("$")) {
+            throw new IllegalArgumentException(path);
+        }
+        List<String> segments = new ArrayList<>();
+        int i = 1;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                segments.add(path.substring(i + 1, end));
+                i = end;
+            } else if (path.startsWith("['", i)) {
+                int end = path.indexOf("']", i + 2);
+                if (end < 0) {
+                    throw new IllegalArgumentException(path);
+                }
+                segments.add(path.substring(i + 2, end));
+                i = end + 2;
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException(path);
+                }
+                segments.add(ANY_ELEMENT);
+                i = end + 1;
+            } else {
+                throw new IllegalArgumentException(path);
+            }
+        }
+        if (segments.isEmpty() || segments.contains("")) {
+            throw new IllegalArgumentException(path);
+        }
+        return segments;
+    }
+
+    /**
+     * Identifies the rules, so a snapshot built with other rules is rebuilt.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the link type of the reference at this JsonPath path or null when no rule matches it
+     */
+    public String getLinkType(String refuuidPath) {
+        State state = root;
+        for (String segment : parsePath(refuuidPath)) {
+            state = ANY_ELEMENT.equals(segment) ? state.element : state.fields.get(segment);
+            if (state == null) {
+                return null;
+            }
+        }
+        return state.linkType;
+    }
+
+    public boolean hasRules(String field) {
+        return root.fields.containsKey(field);
+    }
+
+    /**
+     * Collects the references below a top-level field of a record, the parser being on the first token of its value.
+     */
+    public void extract(JsonParser parser, String field, List<String> refuuids, List<LinkRecord> links) throws IOException {
+        scan(parser, parser.getCurrentToken(), root.fields.get(field), refuuids, links);
+    }
+
+    private static void scan(JsonParser parser, JsonToken token, State state, List<String> refuuids, List<LinkRecord> links) throws IOException {
+        if (token == JsonToken.START_OBJECT) {
+            if (state.hasLinkFields) {
+                match(parser.readValueAsTree(), state, refuuids, links);
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                State child = state.fields.get(parser.getCurrentName());
+                JsonToken valueToken = parser.nextToken();
+                if (child == null) {
+                    parser.skipChildren();
+                } else {
+                    scan(parser, valueToken, child, refuuids, links);
+                }
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            if (state.element == null) {
+                parser.skipChildren();
+                return;
+            }
+            JsonToken elementToken;
+            while ((elementToken = parser.nextToken()) != JsonToken.END_ARRAY) {
+                scan(parser, elementToken, state.element, refuuids, links);
+            }
+        }
+    }
+
+    private static void match(JsonNode node, State state, List<String> refuuids, List<LinkRecord> links) {
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                State child = state.fields.get(field.getKey());
+                if (child == null) {
+                    continue;
+                }
+                JsonNode value = field.getValue();
+                if (child.linkType != null && value.isObject() && value.has("refuuid")) {
+                    // same parent as before: the array element for "...[i]['field']", the object itself otherwise
+                    JsonNode parent = state.isArrayElement ? node : value;
+                    String type = parent.path("type").textValue();
+                    String name = parent.path("name").textValue();
+                    refuuids.add(value.get("refuuid").textValue());
+                    links.add(new LinkRecord(name != null ? name : type, type, child.linkType, parent.path("uuid").textValue()));
+                }
+                match(value, child, refuuids, links);
+            }
+        } else if (node.isArray() && state.element != null) {
+            for (JsonNode element : node) {
+                match(element, state.element, refuuids, links);
+            }
+        }
+    }
+
+    private static class State {
+        final Map<String, State> fields = new HashMap<>();
+        final boolean isArrayElement;
+        State element;
+        String linkType;
+        // objects at this state are read as a tree, since the parent of their links may be any of their fields
+        boolean hasLinkFields;
+
+        State(boolean isArrayElement) {
+            this.isArrayElement = isArrayElement;
+        }
+
+        State getOrAddChild(String segment) {
+            if (ANY_ELEMENT.equals(segment)) {
+                if (element == null) {
+                    element = new State(true);
+                }
+                return element;
+            }
+            return fields.computeIfAbsent(segment, s -> new State(false));
+        }
+
+        void compile() {
+            for (State child : fields.values()) {
+                hasLinkFields |= child.linkType != null;
+                child.compile();
+            }
+            if (element != null) {
+                element.compile();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.List;
+
+/**
+ * A generated network: its nodes and links, the tags to filter them and the legend of their types.
+ */
+@JsonPropertyOrder({"nodes", "links", "tags", "legend"})
+public class Network {
+    public final List<NetworkNode> nodes;
+    public final List<NetworkLink> links;
+    public final List<Tag> tags;
+    public final Legend legend;
+
+    public Network(List<NetworkNode> nodes, List<NetworkLink> links, List<Tag> tags, Legend legend) {
+        this.nodes = nodes;
+        this.links = links;
+        this.tags = tags;
+        this.legend = legend;
+    }
+
+    // getNodesAndLinks marks every node it could not fetch completely with a warning instead of the number of relationships
+    @JsonIgnore
+    public boolean isTruncated() {
+        for (NetworkNode node : nodes) {
+            if (node.getNumberOfRelationships() instanceof String) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // "id" should be unique and consistent among tags, the type or fetch status itself fits this
+    @JsonPropertyOrder({"text", "id"})
+    public static class Tag {
+        public final String text;
+        public final String id;
+
+        public Tag(String text, String id) {
+            this.text = text;
+            this.id = id;
+        }
+    }
+
+    @JsonPropertyOrder({"nodes", "links"})
+    public static class Legend {
+        public final List<LegendNode> nodes;
+        public final List<LegendLink> links;
+
+        public Legend(List<LegendNode> nodes, List<LegendLink> links) {
+            this.nodes = nodes;
+            this.links = links;
+        }
+    }
+
+    @JsonPropertyOrder({"text", "nodeType"})
+    public static class LegendNode {
+        public final String text;
+        public final String nodeType;
+
+        public LegendNode(String text, String nodeType) {
+            this.text = text;
+            this.nodeType = nodeType;
+        }
+    }
+
+    @JsonPropertyOrder({"text", "linkType"})
+    public static class LegendLink {
+        public final String text;
+        public final String linkType;
+
+        public LegendLink(String text, String linkType) {
+            this.text = text;
+            this.linkType = linkType;
+        }
+    }
+}
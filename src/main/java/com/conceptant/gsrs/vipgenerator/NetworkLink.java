@@ -0,0 +1,78 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+
+/**
+ * A link of one network: the shared LinkRecord of the reference, its ends and the numbering set by
+ * NetworkMaker.addLinkMeta when several links join the same nodes. Serialized with the same fields and order as the
+ * maps previously built by LinkRecord.toLink.
+ */
+@JsonSerialize(using = NetworkLink.Serializer.class)
+public class NetworkLink {
+    public final LinkRecord record;
+    public final String sourceUuid;
+    public final String targetUuid;
+
+    private Integer linkTotal;
+    private Integer linkNumber;
+
+    public NetworkLink(LinkRecord record, String sourceUuid, String targetUuid) {
+        this.record = record;
+        this.sourceUuid = sourceUuid;
+        this.targetUuid = targetUuid;
+    }
+
+    public Integer getLinkTotal() {
+        return linkTotal;
+    }
+
+    public Integer getLinkNumber() {
+        return linkNumber;
+    }
+
+    public void setLinkMeta(int linkTotal, int linkNumber) {
+        this.linkTotal = linkTotal;
+        this.linkNumber = linkNumber;
+    }
+
+    public static class Serializer extends JsonSerializer<NetworkLink> {
+        @Override
+        public void serialize(NetworkLink link, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            LinkRecord record = link.record;
+            generator.writeStartObject();
+            generator.writeStringField("source", link.sourceUuid);
+            generator.writeStringField("target", link.targetUuid);
+            if (record.name != null) {
+                generator.writeStringField("n", record.name);
+            }
+
+            generator.writeStringField("linkType", record.linkType);
+            if (record.linkType != null) {
+                generator.writeArrayFieldStart("tags");
+                generator.writeString(record.linkType);
+                generator.writeEndArray();
+            }
+
+            generator.writeObjectFieldStart("obj");
+            generator.writeStringField("Link Type", record.linkType);
+            if (record.pathType != null) {
+                generator.writeStringField("TYPE", record.pathType);
+            }
+            if (record.uuid != null) {
+                generator.writeStringField("UUID", record.uuid);
+            }
+            generator.writeEndObject();
+
+            if (link.linkTotal != null) {
+                generator.writeNumberField("linkTotal", link.linkTotal);
+                generator.writeNumberField("linkNumber", link.linkNumber);
+            }
+            generator.writeEndObject();
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package com.conceptant.gsrs.vipgenerator;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jayway.jsonpath.Configuration;
-import com.jayway.jsonpath.PathNotFoundException;
-import net.minidev.json.JSONArray;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
@@ -14,11 +10,13 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 import java.util.zip.GZIPInputStream;
 
-import static com.jayway.jsonpath.JsonPath.using;
-
 public class NetworkMaker {
     private static final Logger logger = Logger.getLogger(NetworkMaker.class);
 
@@ -26,36 +24,153 @@ public class NetworkMaker {
     public static int DEFAULT_NESTING_LEVEL = 4;
     public static int DEFAULT_MAX_NUMBER_OF_ELEMENTS = 1000;
     public static int DEFAULT_MAX_NUMBER_OF_LINKS_PER_NODE = 50;
+    public static int DEFAULT_NUMBER_OF_THREADS = 1;
+    public static int DEFAULT_NUMBER_OF_SHARDS = 16;
+    public static int DEFAULT_EXPANSION_CACHE_SIZE_MB = 64;
+    public static int DEFAULT_RESPONSE_CACHE_SIZE_MB = 64;
+
+    public static String OUTPUT_FORMAT_FILES = "files";
+    public static String OUTPUT_FORMAT_PACKED = "packed";
+    public static String OUTPUT_FORMAT_DICTIONARY = "dictionary";
+    public static String DEFAULT_OUTPUT_FORMAT = OUTPUT_FORMAT_FILES;
+
+    public static String EXPANSION_LEVEL = "level";
+    public static String EXPANSION_BEST_FIRST = "best-first";
+    public static String DEFAULT_EXPANSION_STRATEGY = EXPANSION_LEVEL;
+
+    public static String ENCODING_JSON = "json";
+    public static String ENCODING_GZIP = "gzip";
+    public static String ENCODING_DEFLATE = "deflate";
+    public static String DEFAULT_ENCODINGS = ENCODING_JSON;
 
     public static String TAG_FETCHED = "fetched";
     public static String TAG_UNFETCHED = "unfetched";
 
-    private static ObjectMapper mapper = new ObjectMapper();
-
-    public static Map<Pattern, String> patternToLinkType = new LinkedHashMap() {{
-        put(Utils.getLiteralPattern("$['relationships'][\\d+]['mediatorSubstance']"), "Relationship");
-        put(Utils.getLiteralPattern("$['relationships'][\\d+]['relatedSubstance']"), "Relationship");
-        /* For now not used links:
-        put(Utils.getLiteralPattern("$['mixture']['components'][\\d+]['substance']"), "Component");
-        put(Utils.getLiteralPattern("$['mixture']['parentSubstance']"), "Mixture");
-        put(Utils.getLiteralPattern("$['modifications']['agentModifications'][\\d+]['agentSubstance']"), "AgentModification");
-        put(Utils.getLiteralPattern("$['modifications']['structuralModifications'][\\d+]['molecularFragment']"), "StructuralModification");
-        put(Utils.getLiteralPattern("$['polymer']['classification']['parentSubstance']"), "PolymerClassification");
-        put(Utils.getLiteralPattern("$['polymer']['monomers'][\\d+]['monomerSubstance']"), "Monomer");
-        put(Utils.getLiteralPattern("$['structurallyDiverse']['hybridSpeciesMaternalOrganism']"), "StructurallyDiverse");
-        put(Utils.getLiteralPattern("$['structurallyDiverse']['hybridSpeciesPaternalOrganism']"), "StructurallyDiverse");
-        put(Utils.getLiteralPattern("$['structurallyDiverse']['parentSubstance']"), "StructurallyDiverse");
-        */
-    }};
+    // ObjectMapper is thread-safe once configured and is shared by all generation threads
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // Every generation thread reuses its own visited sets for all the roots it processes
+    private static final ThreadLocal<VisitedSet> addedNodesOfThread = ThreadLocal.withInitial(VisitedSet::new);
+    private static final ThreadLocal<VisitedSet> sourceNodeTargetsOfThread = ThreadLocal.withInitial(VisitedSet::new);
 
     public static void main(String[] args) throws IOException {
         Args parsedArgs = parseArgs(args);
+        RunMetrics metrics = new RunMetrics();
+        metrics.startSampling();
 
-        logger.debug("Getting nodes cache...");
-        Map<String, Map> nodesCache = getNodesCache(parsedArgs.gsrsFile);
+        long ingestStart = System.nanoTime();
+        SubstanceGraph graph = loadSubstanceGraph(parsedArgs);
+        metrics.recordIngest(System.nanoTime() - ingestStart, graph.size());
         Utils.showMemoryStats();
 
-        generateNetworkFiles(parsedArgs, nodesCache);
+        if (parsedArgs.serverPort != null) {
+            metrics.stopSampling();
+            new NetworkServer(parsedArgs, graph).start();
+            return;
+        }
+
+        Set<String> writtenUuids = ConcurrentHashMap.newKeySet();
+        if (parsedArgs.previousFile != null) {
+            updateNetworkFiles(parsedArgs, graph, metrics, writtenUuids);
+        } else {
+            generateNetworkFiles(parsedArgs, graph, metrics, writtenUuids);
+        }
+
+        metrics.stopSampling();
+        if (parsedArgs.shard != null) {
+            ShardManifest.write(parsedArgs, graph, writtenUuids);
+            metrics.writeReports(parsedArgs.outputDirectory, RunMetrics.REPORT_NAME + "-" + ShardManifest.getShardName(parsedArgs));
+        } else {
+            metrics.writeReports(parsedArgs.outputDirectory, RunMetrics.REPORT_NAME);
+        }
+    }
+
+    // Regenerates only the networks affected by changes since the release in parsedArgs.previousFile
+    public static void updateNetworkFiles(Args parsedArgs, SubstanceGraph graph) throws IOException {
+        updateNetworkFiles(parsedArgs, graph, new RunMetrics(), ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * @param writtenUuids receives the uuids of the networks whose files are complete when the method returns,
+     *                     including the ones kept from the previous release
+     */
+    public static void updateNetworkFiles(Args parsedArgs, SubstanceGraph graph, RunMetrics metrics, Set<String> writtenUuids) throws IOException {
+        File previousFile = parsedArgs.previousFile;
+        SubstanceGraph previousGraph;
+        if (GraphSnapshot.isSnapshot(previousFile)) {
+            logger.debug("Loading previous release from snapshot " + previousFile.getAbsolutePath());
+            previousGraph = GraphSnapshot.read(previousFile);
+        } else {
+            logger.debug("Loading previous release from " + previousFile.getAbsolutePath());
+            previousGraph = getNodesCache(previousFile, parsedArgs.numberOfThreads, LinkTypeRules.load(parsedArgs.linkTypesFile),
+                    createSubstanceStore(parsedArgs));
+        }
+
+        GraphDiff diff = GraphDiff.compare(previousGraph, graph, parsedArgs.nestingLevel);
+        logger.info("Changed or added substances: " + diff.changedSubstances.cardinality()
+                + ", removed substances: " + diff.removedUuids.size()
+                + ", networks to regenerate: " + diff.affectedRoots.cardinality() + " of " + graph.size());
+
+        try (NetworkWriter writer = createNetworkWriter(parsedArgs, graph, true)) {
+            for (String uuid : diff.removedUuids) {
+                if (ShardManifest.isInShard(parsedArgs, uuid)) {
+                    writer.delete(uuid);
+                }
+            }
+            int[] rootIds = diff.affectedRoots.stream().filter(rootId -> ShardManifest.isInShard(parsedArgs, graph.getUuid(rootId))).toArray();
+            for (int rootId = 0; rootId < graph.size(); rootId++) {
+                if (!diff.affectedRoots.get(rootId) && ShardManifest.isInShard(parsedArgs, graph.getUuid(rootId))) {
+                    writtenUuids.add(graph.getUuid(rootId));
+                }
+            }
+            generateNetworkFiles(parsedArgs, graph, rootIds, writer, metrics, writtenUuids);
+        }
+    }
+
+    public static NetworkWriter createNetworkWriter(Args parsedArgs, SubstanceGraph graph, boolean keepExisting) throws IOException {
+        if (OUTPUT_FORMAT_PACKED.equals(parsedArgs.outputFormat)) {
+            return new PackedNetworkWriter(parsedArgs.outputDirectory, parsedArgs.numberOfShards, keepExisting);
+        }
+        if (OUTPUT_FORMAT_DICTIONARY.equals(parsedArgs.outputFormat)) {
+            boolean writeSharedFiles = parsedArgs.shard == null || parsedArgs.shard == 0;
+            return new DictionaryNetworkWriter(parsedArgs.outputDirectory, CompressionStage.open(parsedArgs, graph, keepExisting, writeSharedFiles), graph,
+                    writeSharedFiles);
+        }
+        return new FileNetworkWriter(CompressionStage.open(parsedArgs, graph, keepExisting, parsedArgs.shard == null || parsedArgs.shard == 0));
+    }
+
+    public static SubstanceGraph loadSubstanceGraph(Args parsedArgs) throws IOException {
+        LinkTypeRules linkTypeRules = LinkTypeRules.load(parsedArgs.linkTypesFile);
+        File snapshotFile = parsedArgs.snapshotFile;
+        if (snapshotFile == null) {
+            logger.debug("Getting nodes cache...");
+            return getNodesCache(parsedArgs.gsrsFile, parsedArgs.numberOfThreads, linkTypeRules, createSubstanceStore(parsedArgs));
+        }
+
+        long dumpSize = parsedArgs.gsrsFile.length();
+        // the links of the snapshot depend on the rules too, so other rules rebuild it like another dump
+        long dumpChecksum = GraphSnapshot.getChecksum(parsedArgs.gsrsFile) << 32 ^ linkTypeRules.getFingerprint();
+        SubstanceGraph graph = GraphSnapshot.read(snapshotFile, dumpSize, dumpChecksum);
+        if (graph != null) {
+            logger.debug("Loaded nodes cache from snapshot " + snapshotFile.getAbsolutePath());
+            return graph;
+        }
+
+        logger.debug("Getting nodes cache...");
+        graph = getNodesCache(parsedArgs.gsrsFile, parsedArgs.numberOfThreads, linkTypeRules);
+        GraphSnapshot.write(graph, snapshotFile, dumpSize, dumpChecksum);
+        logger.debug("Saved nodes cache snapshot to " + snapshotFile.getAbsolutePath());
+        return graph;
+    }
+
+    // null without the --store option
+    private static SubstanceStore createSubstanceStore(Args parsedArgs) throws IOException {
+        if (parsedArgs.storeDirectory == null) {
+            return null;
+        }
+        SubstanceStore store = SubstanceStore.create(parsedArgs.storeDirectory);
+        logger.debug("Writing substance store " + store.getFile().getAbsolutePath());
+        return store;
     }
 
     private static Args parseArgs(String[] args) {
@@ -68,6 +183,20 @@ public class NetworkMaker {
         options.addOption("l", true, "The level of nesting for nodes.\nDefault value: " + DEFAULT_NESTING_LEVEL);
         options.addOption("m", true, "The maximum number of elements (nodes+links) for the whole network file.\nDefault value: " + DEFAULT_MAX_NUMBER_OF_ELEMENTS);
         options.addOption("n", true, "The maximum number of links for each node.\nDefault value: " + DEFAULT_MAX_NUMBER_OF_LINKS_PER_NODE);
+        options.addOption("t", true, "The number of threads parsing the .gsrs file and generating network files in parallel.\nDefault value: " + DEFAULT_NUMBER_OF_THREADS);
+        options.addOption("s", true, "The snapshot file of the parsed .gsrs file. It is created on the first run and used instead of parsing the .gsrs file while the .gsrs file stays the same.\nDefault value: none, the .gsrs file is always parsed");
+        options.addOption("p", true, "The .gsrs file or snapshot (see \"s\" option) of the previous release. Only the files of networks affected by changes since that release are regenerated and the files of removed substances are deleted. The output directory should contain the files generated for the previous release with the same \"l\", \"m\" and \"n\" values.\nDefault value: none, all files are generated");
+        options.addOption("o", true, "The output format: \"" + OUTPUT_FORMAT_FILES + "\" writes a json file per substance, \"" + OUTPUT_FORMAT_PACKED + "\" appends all networks to a few shard files with an index (see PackedNetworkReader), \"" + OUTPUT_FORMAT_DICTIONARY + "\" writes all nodes once into a node dictionary and slim json files per substance (see DictionaryNetworkWriter).\nDefault value: " + DEFAULT_OUTPUT_FORMAT);
+        options.addOption("e", true, "The expansion strategy: \"" + EXPANSION_LEVEL + "\" fetches the nodes level by level in the order they were found and stops at the first node exceeding the remaining maximum number of elements, \"" + EXPANSION_BEST_FIRST + "\" fetches the nodes of each level from the lowest number of relationships up and keeps going with the nodes which still fit.\nDefault value: " + DEFAULT_EXPANSION_STRATEGY);
+        options.addOption("k", true, "The number of shard files for the \"" + OUTPUT_FORMAT_PACKED + "\" output format.\nDefault value: " + DEFAULT_NUMBER_OF_SHARDS);
+        options.addOption("c", true, "The memory budget in MB of the cache of nodes shared by all networks, 0 disables the cache.\nDefault value: " + DEFAULT_EXPANSION_CACHE_SIZE_MB);
+        options.addOption("w", true, "The port of the local HTTP server serving networks generated on demand at /<uuid>.json, with optional \"l\", \"m\" and \"n\" query parameters, instead of writing the files (see NetworkServer).\nDefault value: none, the files are written");
+        options.addOption("r", true, "The memory budget in MB of the cache of responses of the HTTP server (see \"w\" option).\nDefault value: " + DEFAULT_RESPONSE_CACHE_SIZE_MB);
+        options.addOption(Option.builder().longOpt("shard").hasArg().argName("i/N").desc("Generates only the networks of shard i (0 to N-1) of N, partitioned by uuid hash, and writes a manifest of the shard. Other processes generate the other shards into the same directory or directories copied together later, then ShardManifest verifies and merges the manifests. Not supported with the \"" + OUTPUT_FORMAT_PACKED + "\" output format.\nDefault value: none, all networks are generated").build());
+        options.addOption(Option.builder().longOpt("resume").desc("Resumes a run which didn't finish into the same output directory with the same options, generating only the networks missing from its progress journal. Not supported with the \"" + OUTPUT_FORMAT_PACKED + "\" output format.").build());
+        options.addOption(Option.builder().longOpt("encodings").hasArg().argName("list").desc("The encodings of the written json files, comma separated: \"" + ENCODING_JSON + "\" writes <name>.json, \"" + ENCODING_GZIP + "\" writes <name>.json.gz for web servers serving precompressed files, \"" + ENCODING_DEFLATE + "\" writes <name>.json.deflate, a zlib stream compressed with the preset dictionary " + CompressionStage.DEFLATE_DICTIONARY_FILE_NAME + " trained on sample networks (see DeflateDictionary). Files are compressed by as many threads as \"t\" while the networks are generated. Not supported with the \"" + OUTPUT_FORMAT_PACKED + "\" output format.\nDefault value: " + DEFAULT_ENCODINGS).build());
+        options.addOption(Option.builder().longOpt("link-types").hasArg().argName("file").desc("The properties file of the link type rules, each one mapping the path of a referencing object to its link type, e.g. \"$.mixture.components[*].substance=Component\".\nDefault value: the bundled link-types.properties with the relationship links").build());
+        options.addOption(Option.builder().longOpt("store").hasArg().argName("directory").desc("Low-memory mode: the node jsons and link records are written to a new file in this directory while the .gsrs file is parsed and read from it memory-mapped, only the uuids, the relationships between substances and the cache of nodes (see \"c\" option) stay on the heap. The file is deleted when the run ends, the .gsrs file of a previous release (see \"p\" option) gets its own file. Not supported with the \"s\" option or a snapshot as \"p\" option.\nDefault value: none, everything is kept on the heap").build());
         options.addOption("h", false, "Show help");
 
         HelpFormatter formatter = new HelpFormatter();
@@ -135,7 +264,191 @@ public class NetworkMaker {
             System.exit(1);
         }
 
-        return new Args(gsrsFile, outputDirectory, nestingLevel, maxNumberOfElements, maxNumberOfLinksPerNode);
+        int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
+        try {
+            if (cmd.hasOption("t")) {
+                numberOfThreads = Integer.parseInt(cmd.getOptionValue("t"));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of threads specified for \"t\" option: " + cmd.getOptionValue("t"));
+            System.exit(1);
+        }
+        if (numberOfThreads < 1) {
+            System.out.println("Number of threads specified for \"t\" option should be positive: " + numberOfThreads);
+            System.exit(1);
+        }
+
+        Args parsedArgs = new Args(gsrsFile, outputDirectory, nestingLevel, maxNumberOfElements, maxNumberOfLinksPerNode);
+        parsedArgs.numberOfThreads = numberOfThreads;
+        if (cmd.hasOption("s")) {
+            parsedArgs.snapshotFile = new File(cmd.getOptionValue("s"));
+        }
+        String outputFormat = cmd.getOptionValue("o", DEFAULT_OUTPUT_FORMAT);
+        if (!Arrays.asList(OUTPUT_FORMAT_FILES, OUTPUT_FORMAT_PACKED, OUTPUT_FORMAT_DICTIONARY).contains(outputFormat)) {
+            System.out.println("Invalid output format specified for \"o\" option: " + outputFormat);
+            System.exit(1);
+        }
+        parsedArgs.outputFormat = outputFormat;
+
+        String expansionStrategy = cmd.getOptionValue("e", DEFAULT_EXPANSION_STRATEGY);
+        if (!Arrays.asList(EXPANSION_LEVEL, EXPANSION_BEST_FIRST).contains(expansionStrategy)) {
+            System.out.println("Invalid expansion strategy specified for \"e\" option: " + expansionStrategy);
+            System.exit(1);
+        }
+        parsedArgs.expansionStrategy = expansionStrategy;
+
+        int numberOfShards = DEFAULT_NUMBER_OF_SHARDS;
+        try {
+            if (cmd.hasOption("k")) {
+                numberOfShards = Integer.parseInt(cmd.getOptionValue("k"));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of shards specified for \"k\" option: " + cmd.getOptionValue("k"));
+            System.exit(1);
+        }
+        if (numberOfShards < 1) {
+            System.out.println("Number of shards specified for \"k\" option should be positive: " + numberOfShards);
+            System.exit(1);
+        }
+        parsedArgs.numberOfShards = numberOfShards;
+
+        int expansionCacheSizeMb = DEFAULT_EXPANSION_CACHE_SIZE_MB;
+        try {
+            if (cmd.hasOption("c")) {
+                expansionCacheSizeMb = Integer.parseInt(cmd.getOptionValue("c"));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid cache size specified for \"c\" option: " + cmd.getOptionValue("c"));
+            System.exit(1);
+        }
+        if (expansionCacheSizeMb < 0) {
+            System.out.println("Cache size specified for \"c\" option should not be negative: " + expansionCacheSizeMb);
+            System.exit(1);
+        }
+        parsedArgs.expansionCacheSizeMb = expansionCacheSizeMb;
+
+        if (cmd.hasOption("w")) {
+            int serverPort = -1;
+            try {
+                serverPort = Integer.parseInt(cmd.getOptionValue("w"));
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid port specified for \"w\" option: " + cmd.getOptionValue("w"));
+                System.exit(1);
+            }
+            if (serverPort < 0 || serverPort > 65535) {
+                System.out.println("Port specified for \"w\" option should be between 0 and 65535: " + serverPort);
+                System.exit(1);
+            }
+            parsedArgs.serverPort = serverPort;
+        }
+
+        int responseCacheSizeMb = DEFAULT_RESPONSE_CACHE_SIZE_MB;
+        try {
+            if (cmd.hasOption("r")) {
+                responseCacheSizeMb = Integer.parseInt(cmd.getOptionValue("r"));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid cache size specified for \"r\" option: " + cmd.getOptionValue("r"));
+            System.exit(1);
+        }
+        if (responseCacheSizeMb < 0) {
+            System.out.println("Cache size specified for \"r\" option should not be negative: " + responseCacheSizeMb);
+            System.exit(1);
+        }
+        parsedArgs.responseCacheSizeMb = responseCacheSizeMb;
+
+        if (cmd.hasOption("shard")) {
+            String shard = cmd.getOptionValue("shard");
+            String[] shardParts = shard.split("/");
+            try {
+                if (shardParts.length != 2) {
+                    throw new NumberFormatException();
+                }
+                parsedArgs.shard = Integer.parseInt(shardParts[0].trim());
+                parsedArgs.shardCount = Integer.parseInt(shardParts[1].trim());
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid shard specified for \"shard\" option, expected i/N: " + shard);
+                System.exit(1);
+            }
+            if (parsedArgs.shardCount < 1 || parsedArgs.shard < 0 || parsedArgs.shard >= parsedArgs.shardCount) {
+                System.out.println("Shard specified for \"shard\" option should be between 0 and N-1: " + shard);
+                System.exit(1);
+            }
+            if (OUTPUT_FORMAT_PACKED.equals(parsedArgs.outputFormat)) {
+                System.out.println("The \"shard\" option is not supported with the \"" + OUTPUT_FORMAT_PACKED + "\" output format");
+                System.exit(1);
+            }
+        }
+
+        if (cmd.hasOption("resume")) {
+            if (OUTPUT_FORMAT_PACKED.equals(parsedArgs.outputFormat)) {
+                System.out.println("The \"resume\" option is not supported with the \"" + OUTPUT_FORMAT_PACKED + "\" output format");
+                System.exit(1);
+            }
+            parsedArgs.resume = true;
+        }
+
+        if (cmd.hasOption("encodings")) {
+            List<String> encodings = new ArrayList<>();
+            for (String encoding : cmd.getOptionValue("encodings").split(",")) {
+                encoding = encoding.trim();
+                if (!Arrays.asList(ENCODING_JSON, ENCODING_GZIP, ENCODING_DEFLATE).contains(encoding)) {
+                    System.out.println("Invalid encoding specified for \"encodings\" option: " + encoding);
+                    System.exit(1);
+                }
+                if (!encodings.contains(encoding)) {
+                    encodings.add(encoding);
+                }
+            }
+            if (OUTPUT_FORMAT_PACKED.equals(parsedArgs.outputFormat) && !encodings.equals(Collections.singletonList(ENCODING_JSON))) {
+                System.out.println("The \"encodings\" option is not supported with the \"" + OUTPUT_FORMAT_PACKED + "\" output format");
+                System.exit(1);
+            }
+            parsedArgs.encodings = encodings;
+        }
+
+        if (cmd.hasOption("link-types")) {
+            File linkTypesFile = new File(cmd.getOptionValue("link-types"));
+            try {
+                LinkTypeRules.load(linkTypesFile);
+            } catch (IOException e) {
+                System.out.println("Invalid link types file specified for \"link-types\" option: " + e.getMessage());
+                System.exit(1);
+            }
+            parsedArgs.linkTypesFile = linkTypesFile;
+        }
+
+        if (cmd.hasOption("p")) {
+            File previousFile = new File(cmd.getOptionValue("p"));
+            if (!previousFile.exists()) {
+                logger.error("Specified previous release file " + previousFile.getPath() + " does not exist.");
+                System.exit(1);
+            }
+            parsedArgs.previousFile = previousFile;
+        }
+
+        if (cmd.hasOption("store")) {
+            if (parsedArgs.snapshotFile != null) {
+                System.out.println("The \"store\" option is not supported with the \"s\" option");
+                System.exit(1);
+            }
+            try {
+                if (parsedArgs.previousFile != null && GraphSnapshot.isSnapshot(parsedArgs.previousFile)) {
+                    System.out.println("The \"store\" option is not supported with a snapshot as \"p\" option");
+                    System.exit(1);
+                }
+            } catch (IOException e) {
+                System.out.println("Unable to read the previous release file specified for \"p\" option: " + e.getMessage());
+                System.exit(1);
+            }
+            File storeDirectory = new File(cmd.getOptionValue("store"));
+            if (!storeDirectory.isDirectory()) {
+                System.out.println("Directory specified for \"store\" option does not exist: " + storeDirectory.getPath());
+                System.exit(1);
+            }
+            parsedArgs.storeDirectory = storeDirectory;
+        }
+        return parsedArgs;
     }
 
     private static void printHelpAndExit(Options options, HelpFormatter formatter, int code) {
@@ -156,83 +469,185 @@ public class NetworkMaker {
         return nodesCache;
     }
 
-    public static Map<String, Map> getNodesCache(File gsrsDumpFile) throws IOException {
-        Map<String, Map> nodesCache = new LinkedHashMap<>();
-        try (InputStream fis = new FileInputStream(gsrsDumpFile)) {
-            try (InputStream in = new GZIPInputStream(fis)) {
-                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines().forEach(p -> {
-                    String gsrsJson = p.trim();
-                    String uuid = getUuid(gsrsJson);
+    public static SubstanceGraph getNodesCache(File gsrsDumpFile) throws IOException {
+        return getNodesCache(gsrsDumpFile, 1);
+    }
 
-                    Map<String, Object> cache = new HashMap<>();
-                    Map<String, Object> node = getNode(gsrsJson);
-                    try {
-                        cache.put("node", mapper.writeValueAsString(node));
-                    } catch (JsonProcessingException e) {
-                        logger.error("Unable to serialize node with uuid " + uuid);
-                    }
+    public static SubstanceGraph getNodesCache(File gsrsDumpFile, int numberOfThreads) throws IOException {
+        return getNodesCache(gsrsDumpFile, numberOfThreads, LinkTypeRules.getDefault());
+    }
 
-                    JSONArray relationshipsArray = (JSONArray) Utils.readJson(gsrsJson, "relationships");
-                    String relationshipsString = "{ \"relationships\": " + relationshipsArray.toJSONString() + "}";
-                    cache.put("relationships", relationshipsString);
+    public static SubstanceGraph getNodesCache(File gsrsDumpFile, int numberOfThreads, LinkTypeRules linkTypeRules) throws IOException {
+        return getNodesCache(gsrsDumpFile, numberOfThreads, linkTypeRules, null);
+    }
 
-                    nodesCache.put(uuid, cache);
-                });
+    public static SubstanceGraph getNodesCache(File gsrsDumpFile, int numberOfThreads, LinkTypeRules linkTypeRules,
+                                               SubstanceStore store) throws IOException {
+        return SubstanceLoader.load(gsrsDumpFile, numberOfThreads, linkTypeRules, store);
+    }
+
+    public static void generateNetworkFiles(Args parsedArgs, SubstanceGraph graph) throws IOException {
+        generateNetworkFiles(parsedArgs, graph, new RunMetrics(), ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * @param writtenUuids receives the uuids of the networks whose files are complete when the method returns,
+     *                     including the ones kept from an interrupted attempt
+     */
+    public static void generateNetworkFiles(Args parsedArgs, SubstanceGraph graph, RunMetrics metrics, Set<String> writtenUuids) throws IOException {
+        try (NetworkWriter writer = createNetworkWriter(parsedArgs, graph, false)) {
+            int[] rootIds = IntStream.range(0, graph.size()).filter(rootId -> ShardManifest.isInShard(parsedArgs, graph.getUuid(rootId))).toArray();
+            generateNetworkFiles(parsedArgs, graph, rootIds, writer, metrics, writtenUuids);
+        }
+    }
+
+    public static void generateNetworkFiles(Args parsedArgs, SubstanceGraph graph, int[] rootIdsToGenerate, NetworkWriter writer, RunMetrics metrics,
+                                            Set<String> writtenUuids) throws IOException {
+        ExpansionCache expansionCache = new ExpansionCache(graph, parsedArgs.expansionCacheSizeMb * 1024L * 1024L);
+        try (ProgressJournal journal = ProgressJournal.open(parsedArgs, graph)) {
+            IntStream.Builder rootIdsBuilder = IntStream.builder();
+            for (int rootId : rootIdsToGenerate) {
+                // a file of a completed root may have been removed since the interrupted attempt
+                if (!journal.isCompleted(rootId) || !writer.keep(graph.getUuid(rootId))) {
+                    rootIdsBuilder.add(rootId);
+                } else {
+                    writtenUuids.add(graph.getUuid(rootId));
+                }
+            }
+            int[] rootIds = rootIdsBuilder.build().toArray();
+            metrics.startGeneration(graph, rootIds.length);
+            try {
+                generateNetworkFiles(parsedArgs, graph, Arrays.stream(rootIds), expansionCache, writer, journal, metrics, writtenUuids);
+            } finally {
+                metrics.endGeneration();
+                expansionCache.logStats();
             }
+            // the roots are journaled as their compressed files are completed
+            writer.flush();
+            journal.complete();
+            writer.commit();
         }
-        return nodesCache;
     }
 
-    public static void generateNetworkFiles(Args parsedArgs, Map<String, Map> nodesCache) throws IOException {
-        File gsrsDumpFile = parsedArgs.gsrsFile;
-        File outputDirectory = parsedArgs.outputDirectory;
-        Integer nestingLevel = parsedArgs.nestingLevel;
-        Integer maxNumberOfElements = parsedArgs.maxNumberOfElements;
-        Integer maxNumberOfLinksPerNode = parsedArgs.maxNumberOfLinksPerNode;
+    private static void generateNetworkFiles(Args parsedArgs, SubstanceGraph graph, IntStream rootIds, ExpansionCache expansionCache,
+                                             NetworkWriter writer, ProgressJournal journal, RunMetrics metrics, Set<String> writtenUuids) throws IOException {
+        int numberOfThreads = parsedArgs.numberOfThreads;
+        if (numberOfThreads <= 1) {
+            rootIds.forEach(rootId -> generateNetworkFile(parsedArgs, graph, rootId, expansionCache, writer, journal, metrics, writtenUuids));
+            return;
+        }
 
-        try (InputStream fis = new FileInputStream(gsrsDumpFile)) {
-            try (InputStream in = new GZIPInputStream(fis)) {
-                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines().forEach(p -> {
-                    String gsrsJson = p.trim();
-                    String uuid = getUuid(gsrsJson);
-
-                    logger.debug("----------Processing uuid " + uuid + "----------");
-                    try {
-                        String networkJson = getNetworkJson(gsrsJson, nodesCache, nestingLevel, maxNumberOfElements, maxNumberOfLinksPerNode);
-                        Utils.writeJsonFile(uuid, networkJson, outputDirectory);
-                    } catch (JsonProcessingException e) {
-                        logger.error("Unable to get json string from result object for uuid " + uuid);
-                    }
-                });
+        // Every root only reads the graph and writes its own file, so roots are processed independently.
+        // A parallel stream started from inside the pool runs its tasks on that pool's work-stealing workers.
+        ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+        try {
+            pool.submit(() -> rootIds.parallel().forEach(rootId -> generateNetworkFile(parsedArgs, graph, rootId, expansionCache, writer, journal, metrics, writtenUuids))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Generation of network files was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void generateNetworkFile(Args parsedArgs, SubstanceGraph graph, int rootId, ExpansionCache expansionCache,
+                                            NetworkWriter writer, ProgressJournal journal, RunMetrics metrics, Set<String> writtenUuids) {
+        String uuid = graph.getUuid(rootId);
+
+        logger.debug("----------Processing uuid " + uuid + "----------");
+        long start = System.nanoTime();
+        try {
+            Network network = getNetwork(rootId, graph, expansionCache, parsedArgs.nestingLevel, parsedArgs.maxNumberOfElements, parsedArgs.maxNumberOfLinksPerNode,
+                    parsedArgs.expansionStrategy);
+            boolean isTruncated = network.isTruncated();
+            long bytesWritten = writer.write(uuid, network, () -> {
+                // a journal which can't be written can't be resumed from, so the run stops
+                try {
+                    journal.add(rootId);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to write progress journal: " + e.getMessage(), e);
+                }
+                writtenUuids.add(uuid);
+            });
+            metrics.recordRoot(rootId, System.nanoTime() - start, isTruncated, bytesWritten);
+        } catch (IOException e) {
+            logger.error("Unable to generate network for uuid " + uuid + ": " + e.getMessage());
+            metrics.recordFailedRoot(rootId, System.nanoTime() - start);
         }
     }
 
     public static String getNetworkJson(
-            String json, Map<String, Map> nodesCache,
+            int rootId, SubstanceGraph graph,
+            Integer nestingLevel,
+            Integer maxNumberOfElements,
+            Integer maxNumberOfLinksPerNode
+    ) throws IOException {
+        return mapper.writeValueAsString(getNetwork(rootId, graph, nestingLevel, maxNumberOfElements, maxNumberOfLinksPerNode));
+    }
+
+    public static Network getNetwork(
+            int rootId, SubstanceGraph graph,
+            Integer nestingLevel,
+            Integer maxNumberOfElements,
+            Integer maxNumberOfLinksPerNode
+    ) throws IOException {
+        return getNetwork(rootId, graph, new ExpansionCache(graph, 0), nestingLevel, maxNumberOfElements, maxNumberOfLinksPerNode);
+    }
+
+    public static Network getNetwork(
+            int rootId, SubstanceGraph graph, ExpansionCache expansionCache,
             Integer nestingLevel,
             Integer maxNumberOfElements,
             Integer maxNumberOfLinksPerNode
-    ) throws JsonProcessingException {
-        List allNodes = new ArrayList();
-        List allLinks = new ArrayList();
+    ) throws IOException {
+        return getNetwork(rootId, graph, expansionCache, nestingLevel, maxNumberOfElements, maxNumberOfLinksPerNode, EXPANSION_LEVEL);
+    }
 
-        Map rootNode = getNode(json);
+    public static Network getNetwork(
+            int rootId, SubstanceGraph graph, ExpansionCache expansionCache,
+            Integer nestingLevel,
+            Integer maxNumberOfElements,
+            Integer maxNumberOfLinksPerNode,
+            String expansionStrategy
+    ) throws IOException {
+        List<NetworkNode> allNodes = new ArrayList<>();
+        List<NetworkLink> allLinks = new ArrayList<>();
+
+        // the root node comes from the substance parsed at ingest instead of parsing its record again
+        NetworkNode rootNode = expansionCache.getNode(rootId);
         allNodes.add(rootNode);
 
-        Set<String> addedNodeUuids = new LinkedHashSet<>();
-        addedNodeUuids.add((String) rootNode.get("id"));
-        NetworkState state = new NetworkState(maxNumberOfElements, maxNumberOfLinksPerNode, addedNodeUuids);
+        VisitedSet addedNodes = addedNodesOfThread.get();
+        addedNodes.clear(graph.size());
+        addedNodes.add(rootId);
+        NetworkState state = new NetworkState(maxNumberOfElements, maxNumberOfLinksPerNode, addedNodes, sourceNodeTargetsOfThread.get(), expansionCache);
 
-        List prevLevelNodes = allNodes;
+        if (EXPANSION_BEST_FIRST.equals(expansionStrategy)) {
+            expandBestFirst(rootNode, graph, state, nestingLevel, allNodes, allLinks);
+        } else {
+            expandByLevel(graph, state, nestingLevel, allNodes, allLinks);
+        }
+
+        addLinkMeta(allLinks);
+        return getTagsAndLegend(allNodes, allLinks);
+    }
+
+    private static void expandByLevel(SubstanceGraph graph, NetworkState state, Integer nestingLevel,
+                                      List<NetworkNode> allNodes, List<NetworkLink> allLinks) {
+        List<NetworkNode> prevLevelNodes = allNodes;
         for (int curNestingLevel = 0; curNestingLevel < nestingLevel; curNestingLevel++) {
             int shownLevel = curNestingLevel + 1;
             logger.debug("Getting nodes and links for level " + shownLevel);
 
-            ImmutablePair<List, List> result = getNodesAndLinksForNodes(prevLevelNodes, nodesCache, state);
+            ImmutablePair<List<NetworkNode>, List<NetworkLink>> result = getNodesAndLinksForNodes(prevLevelNodes, graph, state);
 
-            List newLevelNodes = result.left;
-            List newLevelLinks = result.right;
+            List<NetworkNode> newLevelNodes = result.left;
+            List<NetworkLink> newLevelLinks = result.right;
             allNodes.addAll(newLevelNodes);
             allLinks.addAll(newLevelLinks);
 
@@ -257,84 +672,108 @@ public class NetworkMaker {
 
             prevLevelNodes = newLevelNodes;
         }
+    }
 
-        Map network = new LinkedHashMap();
-        network.put("nodes", allNodes);
-        addLinkMeta(allLinks);
-        network.put("links", allLinks);
+    /**
+     * Fetches the nodes from a priority queue ordered by level, then by number of relationships, so the nodes closest to
+     * the root come first and within a level hubs come last. A node exceeding the remaining maximum number of elements
+     * stays unfetched while the following ones may still fit. The level order keeps every node at its shortest distance
+     * from the root, so the nesting level has the same meaning as with the level by level expansion.
+     */
+    private static void expandBestFirst(NetworkNode rootNode, SubstanceGraph graph, NetworkState state, Integer nestingLevel,
+                                        List<NetworkNode> allNodes, List<NetworkLink> allLinks) {
+        PriorityQueue<FrontierNode> frontier = new PriorityQueue<>();
+        int order = 0;
+        frontier.add(new FrontierNode(rootNode, 0, graph.getDegree(rootNode.id), order++));
+
+        while (!frontier.isEmpty()) {
+            FrontierNode sourceNode = frontier.poll();
+            if (sourceNode.level == nestingLevel || state.maxNumberOfElements == 0) {
+                processListNodes(Collections.singletonList(sourceNode.node));
+                continue;
+            }
 
-        ImmutablePair tagsAndLegend = getTagsAndLegend(allNodes, allLinks);
-        network.put("tags", tagsAndLegend.left);
-        network.put("legend", tagsAndLegend.right);
+            ImmutableTriple<Boolean, List<NetworkNode>, List<NetworkLink>> result = getNodesAndLinks(sourceNode.node, graph, state);
+            if (!result.left) {
+                processFetchStatusForNode(sourceNode.node, TAG_UNFETCHED);
+                continue;
+            }
+            processFetchStatusForNode(sourceNode.node, TAG_FETCHED);
 
-        return mapper.writeValueAsString(network);
+            List<NetworkNode> nodes = result.middle;
+            List<NetworkLink> links = result.right;
+            for (NetworkNode node : nodes) {
+                state.addedNodes.add(node.id);
+                frontier.add(new FrontierNode(node, sourceNode.level + 1, graph.getDegree(node.id), order++));
+            }
+            state.maxNumberOfElements -= nodes.size() + links.size();
+            allNodes.addAll(nodes);
+            allLinks.addAll(links);
+        }
     }
 
-    private static ImmutablePair<List, Map> getTagsAndLegend(List<Map<String, Object>> nodes, List<Map<String, Object>> links) {
-        List<Map<String, Object>> tags = new ArrayList<>();
+    private static class FrontierNode implements Comparable<FrontierNode> {
+        final NetworkNode node;
+        final int level;
+        final int degree;
+        // nodes found first go first among equals, which keeps networks deterministic
+        final int order;
+
+        FrontierNode(NetworkNode node, int level, int degree, int order) {
+            this.node = node;
+            this.level = level;
+            this.degree = degree;
+            this.order = order;
+        }
 
-        // "id" should be unique and consistent among tags, so "id" fields equals "text" field fits this.
-        Map<String, Object> fetchedTag = new LinkedHashMap<>();
-        fetchedTag.put("text", Utils.capitalizeFirstLetter(TAG_FETCHED));
-        fetchedTag.put("id", TAG_FETCHED);
-        tags.add(fetchedTag);
+        @Override
+        public int compareTo(FrontierNode other) {
+            if (level != other.level) {
+                return Integer.compare(level, other.level);
+            }
+            if (degree != other.degree) {
+                return Integer.compare(degree, other.degree);
+            }
+            return Integer.compare(order, other.order);
+        }
+    }
 
-        Map<String, Object> unfetchedTag = new LinkedHashMap<>();
-        unfetchedTag.put("text", Utils.capitalizeFirstLetter(TAG_UNFETCHED));
-        unfetchedTag.put("id", TAG_UNFETCHED);
-        tags.add(unfetchedTag);
+    private static Network getTagsAndLegend(List<NetworkNode> nodes, List<NetworkLink> links) {
+        List<Network.Tag> tags = new ArrayList<>();
+        tags.add(new Network.Tag(Utils.capitalizeFirstLetter(TAG_FETCHED), TAG_FETCHED));
+        tags.add(new Network.Tag(Utils.capitalizeFirstLetter(TAG_UNFETCHED), TAG_UNFETCHED));
 
-        List<Map<String, Object>> legendNodes = new ArrayList<>();
+        List<Network.LegendNode> legendNodes = new ArrayList<>();
         Set<String> nodeTypesSet = new LinkedHashSet<>();
-        for (Map<String, Object> node : nodes) {
-            String nodeType = (String) node.get("nodeType");
-            if (!nodeTypesSet.contains(nodeType)) {
-                nodeTypesSet.add(nodeType);
-
-                final String capitalizedNodeType = Utils.capitalizeFirstLetter(nodeType);
-                tags.add(new LinkedHashMap() {{
-                    put("text", capitalizedNodeType);
-                    put("id", nodeType);
-                }});
-                legendNodes.add(new LinkedHashMap() {{
-                    put("text", capitalizedNodeType);
-                    put("nodeType", nodeType);
-                }});
+        for (NetworkNode node : nodes) {
+            String nodeType = node.getNodeType();
+            if (nodeTypesSet.add(nodeType)) {
+                String capitalizedNodeType = Utils.capitalizeFirstLetter(nodeType);
+                tags.add(new Network.Tag(capitalizedNodeType, nodeType));
+                legendNodes.add(new Network.LegendNode(capitalizedNodeType, nodeType));
             }
         }
 
-        List<Map<String, Object>> legendLinks = new ArrayList<>();
+        List<Network.LegendLink> legendLinks = new ArrayList<>();
         Set<String> linkTypesSet = new LinkedHashSet<>();
-        for (Map<String, Object> link : links) {
-            String linkType = (String) link.get("linkType");
-            if (linkType != null && !linkTypesSet.contains(linkType)) {
-                linkTypesSet.add(linkType);
-
-                tags.add(new LinkedHashMap() {{
-                    put("text", linkType);
-                    put("id", linkType);
-                }});
-                legendLinks.add(new LinkedHashMap() {{
-                    put("text", linkType);
-                    put("linkType", linkType);
-                }});
+        for (NetworkLink link : links) {
+            String linkType = link.record.linkType;
+            if (linkType != null && linkTypesSet.add(linkType)) {
+                tags.add(new Network.Tag(linkType, linkType));
+                legendLinks.add(new Network.LegendLink(linkType, linkType));
             }
         }
 
-        Map<String, Object> legend = new LinkedHashMap<>();
-        legend.put("nodes", legendNodes);
-        legend.put("links", legendLinks);
-
-        return ImmutablePair.of(tags, legend);
+        return new Network(nodes, links, tags, new Network.Legend(legendNodes, legendLinks));
     }
 
-    private static void addLinkMeta(List<Map<String, Object>> links) {
-        LinkedHashMap<String, List<Map<String, Object>>> linksGroupedByPath = new LinkedHashMap<>();
+    public static void addLinkMeta(List<NetworkLink> links) {
+        LinkedHashMap<String, List<NetworkLink>> linksGroupedByPath = new LinkedHashMap<>();
         String linkPathDelimiter = "=|=";
 
-        for (Map<String, Object> link : links) {
-            String linkPath = link.get("source") + linkPathDelimiter + link.get("target");
-            List<Map<String, Object>> pathLinks = linksGroupedByPath.get(linkPath);
+        for (NetworkLink link : links) {
+            String linkPath = link.sourceUuid + linkPathDelimiter + link.targetUuid;
+            List<NetworkLink> pathLinks = linksGroupedByPath.get(linkPath);
             if (pathLinks == null) {
                 pathLinks = new ArrayList<>();
                 pathLinks.add(link);
@@ -345,7 +784,7 @@ public class NetworkMaker {
         }
 
         Set<String> processedReversedLinkPaths = new LinkedHashSet<>();
-        for (Map.Entry<String, List<Map<String, Object>>> entry : linksGroupedByPath.entrySet()) {
+        for (Map.Entry<String, List<NetworkLink>> entry : linksGroupedByPath.entrySet()) {
             String linkPath = entry.getKey();
             if (processedReversedLinkPaths.contains(linkPath)) {
                 continue;
@@ -356,18 +795,16 @@ public class NetworkMaker {
             String target = linkParts[1];
             String reversedLinkPath = target + linkPathDelimiter + source;
 
-            List<Map<String, Object>> pathLinks = entry.getValue();
-            List<Map<String, Object>> reversedPathLinks = linksGroupedByPath.getOrDefault(reversedLinkPath, Collections.emptyList());
-            List<Map<String, Object>> totalLinks = new ArrayList<>(pathLinks);
+            List<NetworkLink> pathLinks = entry.getValue();
+            List<NetworkLink> reversedPathLinks = linksGroupedByPath.getOrDefault(reversedLinkPath, Collections.emptyList());
+            List<NetworkLink> totalLinks = new ArrayList<>(pathLinks);
             totalLinks.addAll(reversedPathLinks);
 
             Integer linkTotal = totalLinks.size();
             boolean isNeededToSetLinkMeta = linkTotal > 1;
             if (isNeededToSetLinkMeta) {
                 for (int i = 0; i < totalLinks.size(); i++) {
-                    Map<String, Object> link = totalLinks.get(i);
-                    link.put("linkTotal", linkTotal);
-                    link.put("linkNumber", i);
+                    totalLinks.get(i).setLinkMeta(linkTotal, i);
                 }
             }
 
@@ -375,31 +812,23 @@ public class NetworkMaker {
         }
     }
 
-    public static void processFetchStatusForNode(Map<String, Object> node, String fetchStatus) {
-        String newNodeType = node.get("nodeType") + " (" + fetchStatus + ")";
-        node.put("nodeType", newNodeType);
-
-        Set<String> tags = new LinkedHashSet<>();
-        tags.add(newNodeType);
-        tags.add(fetchStatus);
-        node.put("tags", tags);
+    public static void processFetchStatusForNode(NetworkNode node, String fetchStatus) {
+        node.setFetchStatus(fetchStatus);
     }
 
-    public static void processListNodes(List<Map<String, Object>> nodes) {
-        for (Map<String, Object> node : nodes) {
+    public static void processListNodes(List<NetworkNode> nodes) {
+        for (NetworkNode node : nodes) {
             processFetchStatusForNode(node, TAG_UNFETCHED);
-
-            Map nodeObj = (Map) node.get("obj");
-            nodeObj.put("Number Of Relationships", 0);
+            node.setNumberOfRelationships(0);
         }
     }
 
-    public static ImmutablePair<List, List> getNodesAndLinksForNodes(List<Map<String, Object>> sourceNodes, Map<String, Map> nodesCache, NetworkState state) {
-        List newNodes = new ArrayList();
-        List newLinks = new ArrayList();
+    public static ImmutablePair<List<NetworkNode>, List<NetworkLink>> getNodesAndLinksForNodes(List<NetworkNode> sourceNodes, SubstanceGraph graph, NetworkState state) {
+        List<NetworkNode> newNodes = new ArrayList<>();
+        List<NetworkLink> newLinks = new ArrayList<>();
 
-        for (Map sourceNode : sourceNodes) {
-            ImmutableTriple<Boolean, List, List> result = getNodesAndLinks(sourceNode, nodesCache, state);
+        for (NetworkNode sourceNode : sourceNodes) {
+            ImmutableTriple<Boolean, List<NetworkNode>, List<NetworkLink>> result = getNodesAndLinks(sourceNode, graph, state);
             Boolean isFetched = result.left;
             if (!isFetched) {
                 processFetchStatusForNode(sourceNode, TAG_UNFETCHED);
@@ -413,9 +842,9 @@ public class NetworkMaker {
 
             processFetchStatusForNode(sourceNode, TAG_FETCHED);
 
-            List<Map<String, Object>> nodes = result.middle;
-            nodes.stream().forEach((Map n) -> state.addedNodeUuids.add((String) n.get("id")));
-            List links = result.right;
+            List<NetworkNode> nodes = result.middle;
+            nodes.forEach(n -> state.addedNodes.add(n.id));
+            List<NetworkLink> links = result.right;
             state.maxNumberOfElements -= nodes.size() + links.size();
             newNodes.addAll(nodes);
             newLinks.addAll(links);
@@ -425,77 +854,82 @@ public class NetworkMaker {
     }
 
 
-    public static ImmutableTriple<Boolean, List, List> getNodesAndLinks(Map sourceNode, Map<String, Map> nodesCache, NetworkState state) {
-        String sourceUuid = (String) sourceNode.get("id");
+    public static ImmutableTriple<Boolean, List<NetworkNode>, List<NetworkLink>> getNodesAndLinks(NetworkNode sourceNode, SubstanceGraph graph, NetworkState state) {
+        String sourceUuid = sourceNode.getUuid();
 
-        List<Map<String, Object>> nodes = new ArrayList<>();
-        List<Map<String, Object>> links = new ArrayList<>();
-        Set<String> nodesUuids = new HashSet();
-        int currentNumberOfElements = 0;
+        List<NetworkNode> nodes = new ArrayList<>();
+        List<NetworkLink> links = new ArrayList<>();
         int currentNumberOfLinks = 0;
 
-        Map sourceJson = nodesCache.get(sourceUuid);
-        Map sourceNodeObj = (Map) sourceNode.get("obj");
-        String relationshipsString = (String) sourceJson.get("relationships");
-        List<String> refuuidPaths = getRefuuidPaths(relationshipsString);
+        int sourceId = sourceNode.id;
 
-        Integer numberOfReferences = refuuidPaths.size();
+        Integer numberOfReferences = graph.getDegree(sourceId);
         logger.debug("Found " + numberOfReferences + " refuuids for uuid " + sourceUuid);
 
-        for (String refuuidPath : refuuidPaths) {
-            if (currentNumberOfLinks > state.maxNumberOfLinksPerNode || currentNumberOfElements > state.maxNumberOfElements) {
-                sourceNodeObj.put("Number Of Relationships", numberOfReferences + " (WARNING: this number exceeds the maximum number of links supported by this visualization)");
-                return ImmutableTriple.of(false, nodes, links);
-            }
+        // decided on the graph ids alone, so nodes and links of a node which can't be fetched are never built
+        if (!isWithinLimits(sourceId, graph, state)) {
+            sourceNode.setNumberOfRelationships(numberOfReferences + " (WARNING: this number exceeds the maximum number of links supported by this visualization)");
+            return ImmutableTriple.of(false, nodes, links);
+        }
 
-            String targetUuid = getRefuuid(relationshipsString, refuuidPath);
-            Map targetJson = nodesCache.get(targetUuid);
-            if (targetJson == null) {
-                logger.error("Unable to find json in cache for uuid " + targetUuid + " found by refuuidPath " + refuuidPath);
+        VisitedSet nodeIds = state.sourceNodeTargets;
+        nodeIds.clear(graph.size());
+        for (int edge = graph.getEdgeStart(sourceId); edge < graph.getEdgeEnd(sourceId); edge++) {
+            int targetId = graph.getEdgeTarget(edge);
+            if (targetId == SubstanceGraph.MISSING_TARGET) {
+                // already reported while building the graph
                 continue;
             }
+            String targetUuid = graph.getUuid(targetId);
 
-            boolean isSelfReference = sourceUuid.equals(targetUuid);
-            boolean isAlreadyAdded = nodesUuids.contains(targetUuid) || state.addedNodeUuids.contains(targetUuid);
+            boolean isSelfReference = sourceId == targetId;
+            boolean isAlreadyAdded = nodeIds.contains(targetId) || state.addedNodes.contains(targetId);
             if (isAlreadyAdded) {
 //                logger.warn("Node with targetUuid: " + targetUuid + " is already added");
             } else if (isSelfReference) {
-                logger.warn("Found self-reference for uuid: " + sourceUuid + ", refuuidPath: " + refuuidPath);
+                logger.warn("Found self-reference for uuid: " + sourceUuid);
             } else {
                 try {
-                    Map node = mapper.readValue((String) targetJson.get("node"), Map.class);
+                    NetworkNode node = state.expansionCache.getNode(targetId);
                     nodes.add(node);
-                    nodesUuids.add(targetUuid);
-                    currentNumberOfElements++;
+                    nodeIds.add(targetId);
                 } catch (IOException e) {
                     logger.error("Unable deserialize node with uuid " + targetUuid);
                 }
             }
 
             // self-reference link is valid and should be added among with normal links
-            links.add(getLink(relationshipsString, sourceUuid, targetUuid, refuuidPath));
-            currentNumberOfElements++;
+            links.add(new NetworkLink(graph.getLinkRecord(edge), sourceUuid, targetUuid));
             currentNumberOfLinks++;
         }
 
-        sourceNodeObj.put("Number Of Relationships", currentNumberOfLinks);
+        sourceNode.setNumberOfRelationships(currentNumberOfLinks);
 
         return ImmutableTriple.of(true, nodes, links);
     }
 
-    public static List<String> getRefuuidPaths(String json) {
-        Configuration conf = Configuration.builder().options(com.jayway.jsonpath.Option.AS_PATH_LIST).build();
-        try {
-            // Gets all object paths where refuuid is present
-            return using(conf).parse(json).read("$..[?(@.refuuid)]");
-        } catch (PathNotFoundException e) {
-            // no refuuid paths found
-            return Collections.emptyList();
+    // Same counting as getNodesAndLinks: the node can't be fetched when the links or elements found before any of its
+    // references exceed the limits
+    private static boolean isWithinLimits(int sourceId, SubstanceGraph graph, NetworkState state) {
+        VisitedSet nodeIds = state.sourceNodeTargets;
+        nodeIds.clear(graph.size());
+        int currentNumberOfElements = 0;
+        int currentNumberOfLinks = 0;
+        for (int edge = graph.getEdgeStart(sourceId); edge < graph.getEdgeEnd(sourceId); edge++) {
+            if (currentNumberOfLinks > state.maxNumberOfLinksPerNode || currentNumberOfElements > state.maxNumberOfElements) {
+                return false;
+            }
+            int targetId = graph.getEdgeTarget(edge);
+            if (targetId == SubstanceGraph.MISSING_TARGET) {
+                continue;
+            }
+            if (targetId != sourceId && !state.addedNodes.contains(targetId) && nodeIds.add(targetId)) {
+                currentNumberOfElements++;
+            }
+            currentNumberOfElements++;
+            currentNumberOfLinks++;
         }
-    }
-
-    public static String getRefuuid(String json, String refuuidPath) {
-        return (String) Utils.readJson(json, refuuidPath + ".refuuid");
+        return true;
     }
 
     public static String getUuid(String json) {
@@ -503,92 +937,10 @@ public class NetworkMaker {
     }
 
     public static Map<String, Object> getNode(String json) {
-        Map<String, Object> nodeJson = new LinkedHashMap<>();
-
-        String uuid = getUuid(json);
-        nodeJson.put("id", uuid);
-
-        List<String> displayNames = (List) Utils.readJson(json, "$.names[?(@.displayName == true)]..name");
-        String n;
-        if (displayNames.size() > 0) {
-            n = displayNames.get(0);
-        } else {
-            List<String> preferredNames = (List) Utils.readJson(json, "$.names[?(@.preferred == true)]..name");
-            if (preferredNames.size() > 0) {
-                n = preferredNames.get(0);
-            } else {
-                n = (String) Utils.readJson(json, "$.names[0].name");
-            }
-        }
-        nodeJson.put("n", n);
-
-        String substanceClass = (String) Utils.readJson(json, "$.substanceClass");
-        nodeJson.put("nodeType", substanceClass);
-
-        Map<String, Object> nodeObj = new LinkedHashMap<>();
-        nodeObj.put("UUID", uuid);
-        nodeObj.put("Substance Class", substanceClass);
-        nodeObj.put("Type", substanceClass);
-
-        String approvalId = (String) Utils.readJson(json, "$.approvalID");
-        if (approvalId != null) {
-            nodeObj.put("UNII", approvalId);
-        } else {
-            List uniiCodes = (List) Utils.readJson(json, "$.codes[?(@.codeSystem == \"FDA UNII\")].code");
-            nodeObj.put("UNII", uniiCodes.size() > 0 ? uniiCodes.get(0) : null);
-        }
-
-        nodeJson.put("obj", nodeObj);
-
-        return nodeJson;
-    }
-
-    public static Map<String, Object> getLink(String sourceJson, String sourceUuid, String targetUuid, String refuuidPath) {
-        Map<String, Object> link = new LinkedHashMap<>();
-        link.put("source", sourceUuid);
-        link.put("target", targetUuid);
-
-        // Parent obj is retrieved differently for paths with array and without array:
-        // With array: "$['modifications']['structuralModifications'][0]['molecularFragment']" => "$['modifications']['structuralModifications'][0]
-        // Without array: "$['mixture']['parentSubstance']" => "$['mixture']['parentSubstance']"
-        Pattern withArrayPattern = Pattern.compile("\\[\\d+\\]\\['\\w+'\\]$");
-        boolean hasArrayInPath = withArrayPattern.matcher(refuuidPath).find();
-        String parentPath = hasArrayInPath ? refuuidPath.substring(0, refuuidPath.lastIndexOf("[")) : refuuidPath;
-        Map parentObject = (Map) Utils.readJson(sourceJson, parentPath);
-
-        String parentType = (String) parentObject.get("type");
-        String name = (String) parentObject.get("name");
-        String n = name != null ? name : parentType;
-        Utils.putIfNotNull(link, "n", n);
-
-        link.put("linkType", parentType);
-        if (parentType != null) {
-            Set<String> tags = new LinkedHashSet<>();
-            tags.add(parentType);
-            link.put("tags", tags);
-        }
-
-        Map<String, String> linkObj = new LinkedHashMap<>();
-        linkObj.put("Link Type", parentType);
-        String linkType = getLinkType(refuuidPath);
-        Utils.putIfNotNull(linkObj, "TYPE", linkType);
-        Utils.putIfNotNull(linkObj, "UUID", parentObject.get("uuid"));
-        link.put("obj", linkObj);
-
-        return link;
-    }
-
-    public static String getLinkType(String refuuidPath) {
-        for (Map.Entry<Pattern, String> entry : patternToLinkType.entrySet()) {
-            Pattern p = entry.getKey();
-            if (p.matcher(refuuidPath).matches()) {
-                return entry.getValue();
-            }
+        try {
+            return SubstanceParser.parse(json).node;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        // Fallback for new (undocumented) link types. For example should get "Transformation" from "$['transformations']['a'][0]['b']"
-        String linkType = refuuidPath.substring(refuuidPath.indexOf("$['") + 3, refuuidPath.indexOf("']"));
-        linkType = Utils.capitalizeFirstLetter(linkType);
-        return linkType.endsWith("s") ? linkType.substring(0, linkType.length() - 1) : linkType;
     }
 }
@@ -0,0 +1,89 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A node of one network: the shared SubstanceNode plus what the network sets on it, its fetch status and number of
+ * relationships. Serialized as {"id", "n", "nodeType", "obj", "tags"} with the same fields and order as the maps
+ * previously built for every node.
+ */
+@JsonSerialize(using = NetworkNode.Serializer.class)
+public class NetworkNode {
+    // graph id of the substance
+    public final int id;
+    public final SubstanceNode substance;
+
+    private String nodeType;
+    private String fetchStatus;
+    // "Number Of Relationships" of "obj": a number, or a string with a warning when the node couldn't be fetched
+    private Object numberOfRelationships;
+
+    public NetworkNode(int id, SubstanceNode substance) {
+        this.id = id;
+        this.substance = substance;
+        this.nodeType = substance.nodeType;
+    }
+
+    public String getUuid() {
+        return substance.uuid;
+    }
+
+    // "nodeType" includes the fetch status once it is set, e.g. "chemical (fetched)"
+    public String getNodeType() {
+        return nodeType;
+    }
+
+    public String getFetchStatus() {
+        return fetchStatus;
+    }
+
+    public void setFetchStatus(String fetchStatus) {
+        this.nodeType = nodeType + " (" + fetchStatus + ")";
+        this.fetchStatus = fetchStatus;
+    }
+
+    public Object getNumberOfRelationships() {
+        return numberOfRelationships;
+    }
+
+    public void setNumberOfRelationships(Object numberOfRelationships) {
+        this.numberOfRelationships = numberOfRelationships;
+    }
+
+    public static class Serializer extends JsonSerializer<NetworkNode> {
+        @Override
+        public void serialize(NetworkNode node, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            SubstanceNode substance = node.substance;
+            generator.writeStartObject();
+            generator.writeStringField("id", substance.uuid);
+            generator.writeFieldName("n");
+            provider.defaultSerializeValue(substance.name, generator);
+            generator.writeStringField("nodeType", node.nodeType);
+
+            generator.writeObjectFieldStart("obj");
+            for (Map.Entry<String, Object> entry : substance.obj.entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                provider.defaultSerializeValue(entry.getValue(), generator);
+            }
+            if (node.numberOfRelationships != null) {
+                generator.writeFieldName("Number Of Relationships");
+                provider.defaultSerializeValue(node.numberOfRelationships, generator);
+            }
+            generator.writeEndObject();
+
+            if (node.fetchStatus != null) {
+                generator.writeArrayFieldStart("tags");
+                generator.writeString(node.nodeType);
+                generator.writeString(node.fetchStatus);
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+    }
+}
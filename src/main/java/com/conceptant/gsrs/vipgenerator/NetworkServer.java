@@ -0,0 +1,305 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves networks generated on demand over HTTP on the loopback interface, instead of writing a file per substance.
+ * <p>
+ * {@code GET /<uuid>.json?l=<depth>&m=<maxNumberOfElements>&n=<maxNumberOfLinksPerNode>} returns the same json as the
+ * file &lt;uuid&gt;.json generated with these options, any path ending with &lt;uuid&gt;.json is accepted so the
+ * frontend can point its data directory at the server. Missing parameters default to the command line values, which
+ * are also their maximum, so a single request can't make the server build and cache a network larger than a run with
+ * these options would write.
+ * <p>
+ * Rendered responses are kept in an LRU cache bounded by their size, together with their gzip encoding (used when the
+ * client accepts it) and an ETag, so repeated requests are answered from memory or with 304 Not Modified.
+ */
+public class NetworkServer {
+    private static final Logger logger = Logger.getLogger(NetworkServer.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final String JSON_EXTENSION = ".json";
+
+    private final SubstanceGraph graph;
+    private final Args defaultArgs;
+    private final ExpansionCache expansionCache;
+    private final ResponseCache responses;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public NetworkServer(Args parsedArgs, SubstanceGraph graph) {
+        this.graph = graph;
+        this.defaultArgs = parsedArgs;
+        this.expansionCache = new ExpansionCache(graph, parsedArgs.expansionCacheSizeMb * 1024L * 1024L);
+        this.responses = new ResponseCache(parsedArgs.responseCacheSizeMb * 1024L * 1024L);
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), defaultArgs.serverPort), 0);
+        server.createContext("/", this::handle);
+        executor = Executors.newFixedThreadPool(defaultArgs.numberOfThreads);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Serving networks of " + graph.size() + " substances on http://"
+                + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/<uuid>.json");
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        expansionCache.logStats();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            URI uri = exchange.getRequestURI();
+            String path = uri.getPath();
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            if (!fileName.endsWith(JSON_EXTENSION)) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            String uuid = fileName.substring(0, fileName.length() - JSON_EXTENSION.length());
+            int rootId = graph.getId(uuid);
+            if (rootId == SubstanceGraph.MISSING_TARGET) {
+                sendError(exchange, 404, "Substance " + uuid + " is not found");
+                return;
+            }
+
+            int nestingLevel;
+            int maxNumberOfElements;
+            int maxNumberOfLinksPerNode;
+            try {
+                Map<String, String> parameters = getQueryParameters(uri.getRawQuery());
+                nestingLevel = getParameter(parameters, "l", defaultArgs.nestingLevel);
+                maxNumberOfElements = getParameter(parameters, "m", defaultArgs.maxNumberOfElements);
+                maxNumberOfLinksPerNode = getParameter(parameters, "n", defaultArgs.maxNumberOfLinksPerNode);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            String key = uuid + "?l=" + nestingLevel + "&m=" + maxNumberOfElements + "&n=" + maxNumberOfLinksPerNode;
+            Response response = responses.get(key);
+            if (response == null) {
+                try {
+                    Network network = NetworkMaker.getNetwork(rootId, graph, expansionCache, nestingLevel, maxNumberOfElements, maxNumberOfLinksPerNode,
+                            defaultArgs.expansionStrategy);
+                    response = new Response(mapper.writeValueAsBytes(network));
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Unable to generate network for uuid " + uuid + ": " + e.getMessage(), e);
+                    sendError(exchange, 500, "Unable to generate network for uuid " + uuid);
+                    return;
+                }
+                responses.put(key, response);
+            }
+            send(exchange, response);
+        } finally {
+            exchange.close();
+            logger.debug("Served " + exchange.getRequestURI() + " in " + (System.nanoTime() - start) / 1000 + " us");
+        }
+    }
+
+    // @param defaultValue the value of a missing parameter and the maximum of a given one
+    private static int getParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int parsedValue;
+        try {
+            parsedValue = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of parameter " + name + ": " + value);
+        }
+        if (parsedValue < 0) {
+            throw new IllegalArgumentException("Parameter " + name + " should not be negative: " + value);
+        }
+        if (parsedValue > defaultValue) {
+            throw new IllegalArgumentException("Parameter " + name + " should not exceed " + defaultValue + ": " + value);
+        }
+        return parsedValue;
+    }
+
+    private static Map<String, String> getQueryParameters(String rawQuery) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "application/json; charset=utf-8");
+        headers.set("ETag", response.etag);
+        headers.set("Cache-Control", "no-cache");
+        headers.set("Vary", "Accept-Encoding");
+        headers.set("Access-Control-Allow-Origin", "*");
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(response.etag) || ifNoneMatch.trim().equals("*"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        byte[] body = response.json;
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptsGzip(acceptEncoding)) {
+            body = response.getGzip();
+            headers.set("Content-Encoding", "gzip");
+        }
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            headers.set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // "gzip;q=0" refuses gzip, a "*" entry applies when gzip isn't listed
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipQuality = null;
+        Double wildcardQuality = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzipQuality = quality;
+            } else if (name.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+        if (gzipQuality != null) {
+            return gzipQuality > 0;
+        }
+        return wildcardQuality != null && wildcardQuality > 0;
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static class Response {
+        final byte[] json;
+        final String etag;
+        private volatile byte[] gzip;
+
+        Response(byte[] json) {
+            this.json = json;
+            CRC32 crc = new CRC32();
+            crc.update(json);
+            // weak, because the same tag is sent for the gzip encoding
+            this.etag = "W/\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(json.length) + "\"";
+        }
+
+        // Compressed on the first request accepting gzip, concurrent requests may compress it twice
+        byte[] getGzip() throws IOException {
+            byte[] compressed = gzip;
+            if (compressed == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                    gzipOut.write(json);
+                }
+                compressed = out.toByteArray();
+                gzip = compressed;
+            }
+            return compressed;
+        }
+
+        long getSize() {
+            // the gzip encoding is usually well under a quarter of the json
+            return json.length + json.length / 4;
+        }
+    }
+
+    private static class ResponseCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, Response> responses = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        ResponseCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Response get(String key) {
+            return responses.get(key);
+        }
+
+        synchronized void put(String key, Response response) {
+            if (response.getSize() > maxBytes) {
+                return;
+            }
+            Response previous = responses.put(key, response);
+            if (previous != null) {
+                size -= previous.getSize();
+            }
+            size += response.getSize();
+            Iterator<Response> iterator = responses.values().iterator();
+            while (size > maxBytes && iterator.hasNext()) {
+                size -= iterator.next().getSize();
+                iterator.remove();
+            }
+        }
+    }
+}
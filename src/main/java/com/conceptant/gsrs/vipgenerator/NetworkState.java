@@ -1,15 +1,20 @@
 package com.conceptant.gsrs.vipgenerator;
 
-import java.util.Set;
-
 public class NetworkState {
     public Integer maxNumberOfElements;
     public Integer maxNumberOfLinksPerNode;
-    public Set<String> addedNodeUuids;
+    // Ids of the nodes added to the network
+    public VisitedSet addedNodes;
+    // Ids of the nodes found by the current getNodesAndLinks call
+    public VisitedSet sourceNodeTargets;
+    public ExpansionCache expansionCache;
 
-    public NetworkState(Integer maxNumberOfElements, Integer maxNumberOfLinksPerNode, Set<String> addedNodeUuids) {
+    public NetworkState(Integer maxNumberOfElements, Integer maxNumberOfLinksPerNode, VisitedSet addedNodes, VisitedSet sourceNodeTargets,
+                        ExpansionCache expansionCache) {
         this.maxNumberOfElements = maxNumberOfElements;
         this.maxNumberOfLinksPerNode = maxNumberOfLinksPerNode;
-        this.addedNodeUuids = addedNodeUuids;
+        this.addedNodes = addedNodes;
+        this.sourceNodeTargets = sourceNodeTargets;
+        this.expansionCache = expansionCache;
     }
 }
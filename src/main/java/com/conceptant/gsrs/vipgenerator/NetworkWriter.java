@@ -0,0 +1,36 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of generated networks. Implementations are called concurrently when generation runs in parallel.
+ */
+public interface NetworkWriter extends Closeable {
+    /**
+     * @param onWritten run once all files of the network are complete, by the calling thread or a thread of the writer,
+     *                  and not at all when one of them could not be written
+     * @return the number of bytes written
+     */
+    long write(String uuid, Network network, Runnable onWritten) throws IOException;
+
+    /**
+     * Keeps the network written by an interrupted attempt of the run (see ProgressJournal) without generating it again.
+     *
+     * @return false when files of the network are missing, so it has to be generated again
+     */
+    boolean keep(String uuid) throws IOException;
+
+    void delete(String uuid) throws IOException;
+
+    /**
+     * Waits until the files of all networks written so far are complete.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Completes the output once all networks are written, e.g. writes the files listing them. A writer closed without
+     * a commit, because the run failed, leaves the output of the previous run in place where it wasn't overwritten.
+     */
+    void commit() throws IOException;
+}
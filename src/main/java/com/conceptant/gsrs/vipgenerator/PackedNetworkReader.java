@@ -0,0 +1,199 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Looks up networks written in the packed output format (see PackedNetworkWriter).
+ * <p>
+ * The index is memory-mapped and binary searched, a network is served straight from its shard either as a mapped
+ * buffer or with FileChannel.transferTo. It can be used from the command line as well:
+ * {@code java -cp <jar> com.conceptant.gsrs.vipgenerator.PackedNetworkReader <directory> <uuid>}
+ * <p>
+ * Index layout (big-endian): magic, version, number of shards, number of entries, then the entries sorted by uuid,
+ * each one being uuid most and least significant bits, shard, offset and length.
+ */
+public class PackedNetworkReader implements Closeable {
+    public static final String INDEX_FILE_NAME = "networks.idx";
+
+    static final long MAGIC = 0x4753525350494458L; // "GSRSPIDX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    static final int ENTRY_SIZE = 32;
+
+    private final MappedByteBuffer index;
+    private final int numberOfEntries;
+    private final FileChannel[] shards;
+
+    private PackedNetworkReader(MappedByteBuffer index, int numberOfEntries, FileChannel[] shards) {
+        this.index = index;
+        this.numberOfEntries = numberOfEntries;
+        this.shards = shards;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: PackedNetworkReader <directory> <uuid>");
+            System.exit(1);
+        }
+
+        try (PackedNetworkReader reader = open(new File(args[0]))) {
+            WritableByteChannel out = Channels.newChannel(System.out);
+            if (reader.transferTo(args[1], out) < 0) {
+                System.err.println("Network for uuid " + args[1] + " is not found");
+                System.exit(1);
+            }
+            System.out.flush();
+        }
+    }
+
+    public static String getShardFileName(int shard) {
+        return String.format("networks-%03d.pack", shard);
+    }
+
+    public static PackedNetworkReader open(File directory) throws IOException {
+        MappedByteBuffer index;
+        try (FileChannel indexChannel = FileChannel.open(new File(directory, INDEX_FILE_NAME).toPath(), StandardOpenOption.READ)) {
+            index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+        }
+        if (index.getLong(0) != MAGIC || index.getInt(8) != VERSION) {
+            throw new IOException("Unsupported packed networks index in " + directory);
+        }
+
+        FileChannel[] shards = new FileChannel[index.getInt(12)];
+        for (int shard = 0; shard < shards.length; shard++) {
+            shards[shard] = FileChannel.open(new File(directory, getShardFileName(shard)).toPath(), StandardOpenOption.READ);
+        }
+        return new PackedNetworkReader(index, index.getInt(16), shards);
+    }
+
+    public int size() {
+        return numberOfEntries;
+    }
+
+    /**
+     * @return a read-only buffer mapped over the network json or null when there is no network for the uuid
+     */
+    public ByteBuffer read(String uuid) throws IOException {
+        int entry = find(uuid);
+        if (entry < 0) {
+            return null;
+        }
+        return shards[getShard(entry)].map(FileChannel.MapMode.READ_ONLY, getOffset(entry), getLength(entry));
+    }
+
+    /**
+     * @return the number of bytes transferred or -1 when there is no network for the uuid
+     */
+    public long transferTo(String uuid, WritableByteChannel target) throws IOException {
+        int entry = find(uuid);
+        if (entry < 0) {
+            return -1;
+        }
+
+        FileChannel shard = shards[getShard(entry)];
+        long offset = getOffset(entry);
+        long length = getLength(entry);
+        long transferred = 0;
+        while (transferred < length) {
+            long count = shard.transferTo(offset + transferred, length - transferred, target);
+            // the index points past the end of a shard which was truncated or is being rewritten
+            if (count == 0 && offset + transferred >= shard.size()) {
+                throw new IOException("Shard " + getShardFileName(getShard(entry)) + " truncated, network " + uuid
+                        + " ends at " + (offset + length) + " of " + shard.size() + " bytes");
+            }
+            transferred += count;
+        }
+        return transferred;
+    }
+
+    private int find(String uuid) {
+        UUID key;
+        try {
+            key = UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = numberOfEntries - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = HEADER_SIZE + middle * ENTRY_SIZE;
+            int comparison = compare(index.getLong(position), index.getLong(position + 8), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int getShard(int entry) {
+        return index.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 16);
+    }
+
+    private long getOffset(int entry) {
+        return index.getLong(HEADER_SIZE + entry * ENTRY_SIZE + 20);
+    }
+
+    private int getLength(int entry) {
+        return index.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 28);
+    }
+
+    // Entries are ordered by the signed most and then least significant bits of the uuid
+    static int compare(long mostSigBits, long leastSigBits, UUID uuid) {
+        int comparison = Long.compare(mostSigBits, uuid.getMostSignificantBits());
+        return comparison != 0 ? comparison : Long.compare(leastSigBits, uuid.getLeastSignificantBits());
+    }
+
+    static Entry[] readEntries(File directory) throws IOException {
+        try (PackedNetworkReader reader = open(directory)) {
+            Entry[] entries = new Entry[reader.numberOfEntries];
+            for (int entry = 0; entry < entries.length; entry++) {
+                int position = HEADER_SIZE + entry * ENTRY_SIZE;
+                UUID uuid = new UUID(reader.index.getLong(position), reader.index.getLong(position + 8));
+                entries[entry] = new Entry(uuid, reader.getShard(entry), reader.getOffset(entry), reader.getLength(entry));
+            }
+            return entries;
+        }
+    }
+
+    static int getNumberOfShards(File directory) throws IOException {
+        try (PackedNetworkReader reader = open(directory)) {
+            return reader.shards.length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel shard : shards) {
+            shard.close();
+        }
+    }
+
+    static class Entry {
+        final UUID uuid;
+        final int shard;
+        final long offset;
+        final int length;
+
+        Entry(UUID uuid, int shard, long offset, int length) {
+            this.uuid = uuid;
+            this.shard = shard;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
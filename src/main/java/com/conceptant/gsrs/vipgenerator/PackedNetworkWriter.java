@@ -0,0 +1,148 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Appends networks to a few shard files instead of writing one file per substance and keeps an index of
+ * uuid -> (shard, offset, length), written when the writer is committed. See PackedNetworkReader for the format.
+ * <p>
+ * When existing networks are kept, new networks are appended after them and replace their index entries;
+ * the space of replaced networks is only reclaimed by a full run.
+ */
+public class PackedNetworkWriter implements NetworkWriter {
+    private static final Logger logger = Logger.getLogger(PackedNetworkWriter.class);
+    // the shard channels stay open after every network
+    private static final ObjectMapper mapper = new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File directory;
+    private final FileChannel[] shards;
+    private final long[] shardSizes;
+    private final Map<UUID, PackedNetworkReader.Entry> entries = new ConcurrentHashMap<>();
+
+    public PackedNetworkWriter(File directory, int numberOfShards, boolean keepExisting) throws IOException {
+        this.directory = directory;
+
+        boolean hasIndex = new File(directory, PackedNetworkReader.INDEX_FILE_NAME).exists();
+        if (keepExisting && hasIndex) {
+            numberOfShards = PackedNetworkReader.getNumberOfShards(directory);
+            for (PackedNetworkReader.Entry entry : PackedNetworkReader.readEntries(directory)) {
+                entries.put(entry.uuid, entry);
+            }
+            logger.debug("Appending to " + entries.size() + " packed networks in " + numberOfShards + " shards");
+        } else if (hasIndex) {
+            // the shards are truncated below, an index left by a run dying before its commit would point into emptied shards
+            Files.delete(new File(directory, PackedNetworkReader.INDEX_FILE_NAME).toPath());
+        }
+
+        shards = new FileChannel[numberOfShards];
+        shardSizes = new long[numberOfShards];
+        for (int shard = 0; shard < numberOfShards; shard++) {
+            File shardFile = new File(directory, PackedNetworkReader.getShardFileName(shard));
+            shards[shard] = keepExisting && hasIndex
+                    ? FileChannel.open(shardFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                    : FileChannel.open(shardFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            shardSizes[shard] = shards[shard].size();
+        }
+    }
+
+    @Override
+    public long write(String uuid, Network network, Runnable onWritten) throws IOException {
+        UUID key = toKey(uuid);
+        int shard = Math.floorMod(key.hashCode(), shards.length);
+        FileChannel channel = shards[shard];
+
+        // the network is serialized straight to the end of its shard, so the writers of the same shard take turns;
+        // a failed write leaves bytes no index entry points to, which the next network of the shard overwrites
+        long offset;
+        long length;
+        synchronized (channel) {
+            offset = shardSizes[shard];
+            channel.position(offset);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            mapper.writeValue(out, network);
+            out.flush();
+            length = channel.position() - offset;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Network " + uuid + " of " + length + " bytes is too large for the packed output");
+            }
+            shardSizes[shard] = offset + length;
+        }
+        entries.put(key, new PackedNetworkReader.Entry(key, shard, offset, (int) length));
+        onWritten.run();
+        return length;
+    }
+
+    // Packed output can't be resumed, every network is generated by the same run
+    @Override
+    public boolean keep(String uuid) {
+        return false;
+    }
+
+    @Override
+    public void delete(String uuid) throws IOException {
+        entries.remove(toKey(uuid));
+    }
+
+    private static UUID toKey(String uuid) throws IOException {
+        try {
+            return UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Packed output supports only standard uuids, found " + uuid);
+        }
+    }
+
+    // networks are written synchronously
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void commit() throws IOException {
+        writeIndex();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel shard : shards) {
+            shard.close();
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        List<PackedNetworkReader.Entry> sortedEntries = new ArrayList<>(entries.values());
+        sortedEntries.sort((a, b) -> PackedNetworkReader.compare(a.uuid.getMostSignificantBits(), a.uuid.getLeastSignificantBits(), b.uuid));
+
+        File indexFile = new File(directory, PackedNetworkReader.INDEX_FILE_NAME);
+        File tmpFile = new File(directory, PackedNetworkReader.INDEX_FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+            out.writeLong(PackedNetworkReader.MAGIC);
+            out.writeInt(PackedNetworkReader.VERSION);
+            out.writeInt(shards.length);
+            out.writeInt(sortedEntries.size());
+            for (PackedNetworkReader.Entry entry : sortedEntries) {
+                out.writeLong(entry.uuid.getMostSignificantBits());
+                out.writeLong(entry.uuid.getLeastSignificantBits());
+                out.writeInt(entry.shard);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.length);
+            }
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        logger.debug("Written index of " + sortedEntries.size() + " packed networks to " + indexFile.getAbsolutePath());
+    }
+}
@@ -0,0 +1,229 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Journal of the roots whose network files have been completely written, so a run which died can be resumed with
+ * --resume without generating them again.
+ * <p>
+ * The journal file starts with a header identifying the graph and the settings of the run, followed by batches of
+ * completed root ids: the number of ids, the ids and the CRC32 of the ids. A batch is appended and synced when it is
+ * full or a few seconds after its first root, a batch cut short by a crash fails its check and is dropped on resume.
+ * Network files are written to a temporary file and renamed, and a root is only journaled once all of its files are
+ * complete, including the compressed ones written later by the CompressionStage.
+ * The journal is deleted when the run finishes.
+ */
+public class ProgressJournal implements Closeable {
+    private static final Logger logger = Logger.getLogger(ProgressJournal.class);
+
+    public static final String JOURNAL_FILE_NAME = "progress.journal";
+
+    private static final int MAGIC = 0x4E4A524C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int BATCH_SIZE = 4096;
+    private static final long MAX_BATCH_DELAY_NANOS = 10_000_000_000L;
+
+    private final File journalFile;
+    private final FileChannel channel;
+    private final BitSet completedRoots;
+    private final int numberOfResumedRoots;
+
+    private final int[] batch = new int[BATCH_SIZE];
+    private int batchSize;
+    private long batchStart;
+
+    private ProgressJournal(File journalFile, FileChannel channel, BitSet completedRoots) {
+        this.journalFile = journalFile;
+        this.channel = channel;
+        this.completedRoots = completedRoots;
+        this.numberOfResumedRoots = completedRoots.cardinality();
+    }
+
+    public static File getJournalFile(Args parsedArgs) {
+        if (parsedArgs.shard != null) {
+            return new File(parsedArgs.outputDirectory, "progress-" + ShardManifest.getShardName(parsedArgs) + ".journal");
+        }
+        return new File(parsedArgs.outputDirectory, JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Opens the journal of the run, with the roots completed by the previous attempt when resuming, or a new one.
+     */
+    public static ProgressJournal open(Args parsedArgs, SubstanceGraph graph) throws IOException {
+        File journalFile = getJournalFile(parsedArgs);
+        long fingerprint = getFingerprint(parsedArgs, graph);
+        BitSet completedRoots = new BitSet(graph.size());
+
+        if (parsedArgs.resume && journalFile.exists()) {
+            FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long end = read(channel, fingerprint, graph.size(), completedRoots);
+            if (end >= 0) {
+                // drops a batch cut short by a crash
+                channel.truncate(end);
+                channel.position(end);
+                deleteTemporaryFiles(parsedArgs, graph);
+                logger.info("Resuming generation, " + completedRoots.cardinality() + " networks were already generated");
+                return new ProgressJournal(journalFile, channel, completedRoots);
+            }
+            channel.close();
+            logger.warn("Journal " + journalFile.getAbsolutePath() + " was written for another release or other settings, generating all networks");
+        } else if (parsedArgs.resume) {
+            logger.info("No journal found in " + parsedArgs.outputDirectory.getAbsolutePath() + ", generating all networks");
+        }
+
+        FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+        return new ProgressJournal(journalFile, channel, completedRoots);
+    }
+
+    // @return the end of the last complete batch or -1 when the journal doesn't belong to this run
+    private static long read(FileChannel channel, long fingerprint, int numberOfRoots, BitSet completedRoots) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header) || header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != fingerprint) {
+            return -1;
+        }
+
+        long end = channel.position();
+        ByteBuffer count = ByteBuffer.allocate(4);
+        while (readFully(channel, count)) {
+            int size = count.getInt();
+            if (size <= 0 || size > BATCH_SIZE) {
+                break;
+            }
+            ByteBuffer ids = ByteBuffer.allocate(size * 4 + 4);
+            if (!readFully(channel, ids)) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(ids.array(), 0, size * 4);
+            if ((int) crc.getValue() != ids.getInt(size * 4)) {
+                break;
+            }
+            for (int i = 0; i < size; i++) {
+                int rootId = ids.getInt();
+                if (rootId >= 0 && rootId < numberOfRoots) {
+                    completedRoots.set(rootId);
+                }
+            }
+            end = channel.position();
+        }
+        return end;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    // Root ids are only meaningful for the same dump, so the journal is tied to its uuids, the network settings and the
+    // link type rules the links were built with
+    private static long getFingerprint(Args parsedArgs, SubstanceGraph graph) throws IOException {
+        CRC32 crc = new CRC32();
+        String settings = parsedArgs.nestingLevel + "/" + parsedArgs.maxNumberOfElements + "/"
+                + parsedArgs.maxNumberOfLinksPerNode + "/" + parsedArgs.outputFormat + "/" + parsedArgs.expansionStrategy
+                + "/" + parsedArgs.encodings + "/" + LinkTypeRules.load(parsedArgs.linkTypesFile).getFingerprint();
+        crc.update(settings.getBytes(StandardCharsets.UTF_8));
+        for (int id = 0; id < graph.size(); id++) {
+            crc.update(graph.getUuid(id).getBytes(StandardCharsets.UTF_8));
+        }
+        return (long) graph.size() << 32 | crc.getValue();
+    }
+
+    // Files being written when the previous attempt died were never renamed, only the own shard's ones are deleted
+    // since other shards may be writing into the same directory
+    private static void deleteTemporaryFiles(Args parsedArgs, SubstanceGraph graph) {
+        File[] temporaryFiles = parsedArgs.outputDirectory.listFiles((dir, name) -> name.endsWith(Utils.TEMPORARY_FILE_SUFFIX));
+        if (temporaryFiles == null) {
+            return;
+        }
+        for (File temporaryFile : temporaryFiles) {
+            String uuid = temporaryFile.getName().substring(0, temporaryFile.getName().indexOf('.'));
+            if (ShardManifest.isInShard(parsedArgs, uuid) && !temporaryFile.delete()) {
+                logger.error("Unable to delete partially written file " + temporaryFile.getAbsolutePath());
+            }
+        }
+    }
+
+    public boolean isCompleted(int rootId) {
+        return completedRoots.get(rootId);
+    }
+
+    public int getNumberOfResumedRoots() {
+        return numberOfResumedRoots;
+    }
+
+    public synchronized void add(int rootId) throws IOException {
+        if (batchSize == 0) {
+            batchStart = System.nanoTime();
+        }
+        batch[batchSize++] = rootId;
+        if (batchSize == BATCH_SIZE || System.nanoTime() - batchStart > MAX_BATCH_DELAY_NANOS) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (batchSize == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(batchSize * 4 + 8);
+        buffer.putInt(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            buffer.putInt(batch[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, batchSize * 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        batchSize = 0;
+    }
+
+    /**
+     * Deletes the journal once all roots have been generated.
+     */
+    public synchronized void complete() throws IOException {
+        channel.close();
+        if (!journalFile.delete()) {
+            logger.error("Unable to delete journal " + journalFile.getAbsolutePath());
+        }
+    }
+
+    // Keeps the journal of an interrupted run with all the roots completed so far
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a generator run: ingest and generation timers, the latency of every generated root, truncated and
+ * failed roots, bytes written and heap/GC samples.
+ * <p>
+ * Progress is logged periodically during generation, the final report is written to the output directory as
+ * run-metrics.json and, in the Prometheus text format, run-metrics.prom (run-metrics-shard-&lt;i&gt;-of-&lt;N&gt;.*
+ * for a shard).
+ */
+public class RunMetrics {
+    private static final Logger logger = Logger.getLogger(RunMetrics.class);
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static final String REPORT_NAME = "run-metrics";
+
+    private static final int HEAP_SAMPLING_INTERVAL_SECONDS = 1;
+    private static final int PROGRESS_INTERVAL_SECONDS = 10;
+    private static final int NUMBER_OF_SLOWEST_ROOTS = 10;
+
+    private final long startNanos = System.nanoTime();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+    private final List<Map<String, Object>> samples = Collections.synchronizedList(new ArrayList<>());
+    private ScheduledExecutorService sampler;
+
+    private long ingestNanos;
+    private int ingestedRecords;
+
+    private volatile long generationStartNanos;
+    private volatile long generationNanos;
+    private volatile int rootsToGenerate;
+    // Nanoseconds per root id, -1 for roots which are not generated
+    private long[] rootLatencies = new long[0];
+    private SubstanceGraph graph;
+    private final LongAdder generatedRoots = new LongAdder();
+    private final LongAdder truncatedRoots = new LongAdder();
+    private final LongAdder failedRoots = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public void startSampling() {
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicLong ticks = new AtomicLong();
+        sampler.scheduleAtFixedRate(() -> {
+            long heapUsed = sampleHeap();
+            if (ticks.incrementAndGet() % (PROGRESS_INTERVAL_SECONDS / HEAP_SAMPLING_INTERVAL_SECONDS) == 0) {
+                addSample(heapUsed);
+                logProgress(heapUsed);
+            }
+        }, 0, HEAP_SAMPLING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stopSampling() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+        addSample(sampleHeap());
+    }
+
+    public void recordIngest(long nanos, int numberOfRecords) {
+        ingestNanos = nanos;
+        ingestedRecords = numberOfRecords;
+        logger.info("Loaded " + numberOfRecords + " substances in " + nanos / 1_000_000 + " ms ("
+                + perSecond(numberOfRecords, nanos) + " records/sec)");
+    }
+
+    public void startGeneration(SubstanceGraph graph, int numberOfRoots) {
+        this.graph = graph;
+        rootsToGenerate = numberOfRoots;
+        rootLatencies = new long[graph.size()];
+        Arrays.fill(rootLatencies, -1);
+        generationStartNanos = System.nanoTime();
+    }
+
+    public void endGeneration() {
+        generationNanos = System.nanoTime() - generationStartNanos;
+        logger.info("Generated " + generatedRoots.sum() + " networks in " + generationNanos / 1_000_000 + " ms ("
+                + perSecond(generatedRoots.sum(), generationNanos) + " roots/sec), truncated: " + truncatedRoots.sum()
+                + ", failed: " + failedRoots.sum() + ", bytes written: " + bytesWritten.sum());
+    }
+
+    public void recordRoot(int rootId, long nanos, boolean isTruncated, long bytes) {
+        rootLatencies[rootId] = nanos;
+        generatedRoots.increment();
+        if (isTruncated) {
+            truncatedRoots.increment();
+        }
+        bytesWritten.add(bytes);
+    }
+
+    public void recordFailedRoot(int rootId, long nanos) {
+        rootLatencies[rootId] = nanos;
+        generatedRoots.increment();
+        failedRoots.increment();
+    }
+
+    private long sampleHeap() {
+        long heapUsed = memory.getHeapMemoryUsage().getUsed();
+        peakHeapBytes.accumulateAndGet(heapUsed, Math::max);
+        return heapUsed;
+    }
+
+    private void addSample(long heapUsed) {
+        long[] gc = getGcCountAndTime();
+        Map<String, Object> sample = new LinkedHashMap<>();
+        sample.put("elapsedMs", (System.nanoTime() - startNanos) / 1_000_000);
+        sample.put("heapUsedBytes", heapUsed);
+        sample.put("gcCount", gc[0]);
+        sample.put("gcTimeMs", gc[1]);
+        samples.add(sample);
+    }
+
+    private void logProgress(long heapUsed) {
+        if (generationStartNanos == 0 || generationNanos != 0) {
+            return;
+        }
+        long generated = generatedRoots.sum();
+        long[] gc = getGcCountAndTime();
+        logger.info("Generated " + generated + " of " + rootsToGenerate + " networks ("
+                + perSecond(generated, System.nanoTime() - generationStartNanos) + " roots/sec), heap used: "
+                + heapUsed / (1024 * 1024) + " MB, GC: " + gc[0] + " collections in " + gc[1] + " ms");
+    }
+
+    private static long[] getGcCountAndTime() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    private static long perSecond(long count, long nanos) {
+        return nanos > 0 ? Math.round(count / (nanos / 1e9)) : 0;
+    }
+
+    private long[] getSortedLatencies() {
+        return Arrays.stream(rootLatencies).filter(latency -> latency >= 0).sorted().toArray();
+    }
+
+    private static long getPercentile(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)];
+    }
+
+    public Map<String, Object> getReport() {
+        long[] latencies = getSortedLatencies();
+        long[] gc = getGcCountAndTime();
+
+        Map<String, Object> ingest = new LinkedHashMap<>();
+        ingest.put("timeMs", ingestNanos / 1_000_000);
+        ingest.put("records", ingestedRecords);
+        ingest.put("recordsPerSec", perSecond(ingestedRecords, ingestNanos));
+
+        Map<String, Object> rootLatency = new LinkedHashMap<>();
+        rootLatency.put("p50Ms", getPercentile(latencies, 50) / 1e6);
+        rootLatency.put("p99Ms", getPercentile(latencies, 99) / 1e6);
+        rootLatency.put("maxMs", latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0);
+
+        Map<String, Object> generation = new LinkedHashMap<>();
+        generation.put("timeMs", generationNanos / 1_000_000);
+        generation.put("roots", generatedRoots.sum());
+        generation.put("rootsPerSec", perSecond(generatedRoots.sum(), generationNanos));
+        generation.put("truncatedRoots", truncatedRoots.sum());
+        generation.put("failedRoots", failedRoots.sum());
+        generation.put("bytesWritten", bytesWritten.sum());
+        generation.put("rootLatency", rootLatency);
+        generation.put("slowestRoots", getSlowestRoots());
+
+        Map<String, Object> memoryReport = new LinkedHashMap<>();
+        memoryReport.put("peakHeapBytes", peakHeapBytes.get());
+        memoryReport.put("maxHeapBytes", memory.getHeapMemoryUsage().getMax());
+        memoryReport.put("gcCount", gc[0]);
+        memoryReport.put("gcTimeMs", gc[1]);
+        memoryReport.put("samples", new ArrayList<>(samples));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("ingest", ingest);
+        report.put("generation", generation);
+        report.put("memory", memoryReport);
+        return report;
+    }
+
+    private List<Map<String, Object>> getSlowestRoots() {
+        PriorityQueue<Integer> slowest = new PriorityQueue<>(Comparator.comparingLong(rootId -> rootLatencies[rootId]));
+        for (int rootId = 0; rootId < rootLatencies.length; rootId++) {
+            if (rootLatencies[rootId] >= 0) {
+                slowest.add(rootId);
+                if (slowest.size() > NUMBER_OF_SLOWEST_ROOTS) {
+                    slowest.poll();
+                }
+            }
+        }
+
+        List<Map<String, Object>> roots = new ArrayList<>();
+        while (!slowest.isEmpty()) {
+            int rootId = slowest.poll();
+            Map<String, Object> root = new LinkedHashMap<>();
+            root.put("uuid", graph.getUuid(rootId));
+            root.put("numberOfRelationships", graph.getDegree(rootId));
+            root.put("latencyMs", rootLatencies[rootId] / 1e6);
+            roots.add(0, root);
+        }
+        return roots;
+    }
+
+    public void writeReports(File outputDirectory, String reportName) throws IOException {
+        Map<String, Object> report = getReport();
+        mapper.writeValue(new File(outputDirectory, reportName + ".json"), report);
+
+        long[] latencies = getSortedLatencies();
+        long[] gc = getGcCountAndTime();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(new File(outputDirectory, reportName + ".prom").toPath(), StandardCharsets.UTF_8))) {
+            writeMetric(out, "gsrs_ingest_seconds", "gauge", "Time spent loading the substances", ingestNanos / 1e9);
+            writeMetric(out, "gsrs_ingest_records", "gauge", "Number of loaded substances", ingestedRecords);
+            writeMetric(out, "gsrs_generation_seconds", "gauge", "Time spent generating the networks", generationNanos / 1e9);
+            writeMetric(out, "gsrs_generated_roots", "gauge", "Number of generated networks", generatedRoots.sum());
+            writeMetric(out, "gsrs_truncated_roots", "gauge", "Number of networks with nodes exceeding the limits", truncatedRoots.sum());
+            writeMetric(out, "gsrs_failed_roots", "gauge", "Number of networks which could not be generated", failedRoots.sum());
+            writeMetric(out, "gsrs_output_bytes", "gauge", "Number of bytes of the written networks", bytesWritten.sum());
+
+            out.println("# HELP gsrs_root_latency_seconds Time spent generating and writing the network of a root");
+            out.println("# TYPE gsrs_root_latency_seconds summary");
+            out.println("gsrs_root_latency_seconds{quantile=\"0.5\"} " + getPercentile(latencies, 50) / 1e9);
+            out.println("gsrs_root_latency_seconds{quantile=\"0.99\"} " + getPercentile(latencies, 99) / 1e9);
+            out.println("gsrs_root_latency_seconds{quantile=\"1\"} " + (latencies.length > 0 ? latencies[latencies.length - 1] / 1e9 : 0));
+            out.println("gsrs_root_latency_seconds_sum " + Arrays.stream(latencies).sum() / 1e9);
+            out.println("gsrs_root_latency_seconds_count " + latencies.length);
+
+            writeMetric(out, "gsrs_heap_peak_bytes", "gauge", "Peak of the sampled used heap", peakHeapBytes.get());
+            writeMetric(out, "gsrs_gc_collections", "gauge", "Number of garbage collections", gc[0]);
+            writeMetric(out, "gsrs_gc_seconds", "gauge", "Time spent in garbage collections", gc[1] / 1e3);
+        }
+        logger.info("Written run metrics to " + new File(outputDirectory, reportName + ".json").getAbsolutePath());
+    }
+
+    private static void writeMetric(PrintWriter out, String name, String type, String help, double value) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " " + type);
+        out.println(name + " " + (value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long) value) : String.valueOf(value)));
+    }
+}
@@ -0,0 +1,231 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Partitioning of the roots between processes started with {@code --shard i/N} and the manifests they write.
+ * <p>
+ * A root belongs to shard {@code CRC32(uuid) mod N}, so every process computes the same partition from the same dump
+ * without any coordination. Every process writes manifest-shard-&lt;i&gt;-of-&lt;N&gt;.json with the settings of
+ * the run and the uuids of the networks of its shard whose files were written. A shard whose networks could not all be
+ * generated is marked incomplete, with the uuids it is missing, and has to be run again. Once all of them have finished (and their output directories are copied
+ * together, if they ran on different machines), the merge step verifies that every uuid was produced exactly once
+ * and writes manifest.json:
+ * {@code java -cp <jar> com.conceptant.gsrs.vipgenerator.ShardManifest <directory>}
+ */
+public class ShardManifest {
+    private static final Logger logger = Logger.getLogger(ShardManifest.class);
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static final String MERGED_MANIFEST_FILE_NAME = "manifest.json";
+
+    private static final String MANIFEST_FILE_NAME_PREFIX = "manifest-shard-";
+    // Settings which have to be the same in all shards
+    private static final List<String> SETTINGS = Arrays.asList(
+            "numberOfShards", "gsrsFileSize", "numberOfSubstances", "nestingLevel", "maxNumberOfElements",
+            "maxNumberOfLinksPerNode", "outputFormat", "expansionStrategy", "encodings");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ShardManifest <directory>");
+            System.exit(1);
+        }
+
+        File directory = new File(args[0]);
+        List<String> problems = merge(directory);
+        if (!problems.isEmpty()) {
+            for (String problem : problems) {
+                System.out.println(problem);
+            }
+            System.exit(1);
+        }
+        System.out.println("All shards are complete, written " + new File(directory, MERGED_MANIFEST_FILE_NAME).getAbsolutePath());
+    }
+
+    public static int getShard(String uuid, int numberOfShards) {
+        CRC32 crc = new CRC32();
+        crc.update(uuid.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % numberOfShards);
+    }
+
+    public static boolean isInShard(Args parsedArgs, String uuid) {
+        return parsedArgs.shard == null || getShard(uuid, parsedArgs.shardCount) == parsedArgs.shard;
+    }
+
+    public static String getShardName(Args parsedArgs) {
+        return "shard-" + parsedArgs.shard + "-of-" + parsedArgs.shardCount;
+    }
+
+    /**
+     * @param writtenUuids the uuids of the networks whose files are complete, written by the run or kept from a
+     *                     previous one
+     */
+    public static void write(Args parsedArgs, SubstanceGraph graph, Set<String> writtenUuids) throws IOException {
+        List<String> uuids = new ArrayList<>();
+        List<String> missingUuids = new ArrayList<>();
+        for (int id = 0; id < graph.size(); id++) {
+            String uuid = graph.getUuid(id);
+            if (isInShard(parsedArgs, uuid)) {
+                if (writtenUuids.contains(uuid)) {
+                    uuids.add(uuid);
+                } else {
+                    missingUuids.add(uuid);
+                }
+            }
+        }
+
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("shard", parsedArgs.shard);
+        manifest.put("numberOfShards", parsedArgs.shardCount);
+        manifest.put("gsrsFile", parsedArgs.gsrsFile.getName());
+        manifest.put("gsrsFileSize", parsedArgs.gsrsFile.length());
+        manifest.put("numberOfSubstances", graph.size());
+        manifest.put("nestingLevel", parsedArgs.nestingLevel);
+        manifest.put("maxNumberOfElements", parsedArgs.maxNumberOfElements);
+        manifest.put("maxNumberOfLinksPerNode", parsedArgs.maxNumberOfLinksPerNode);
+        manifest.put("outputFormat", parsedArgs.outputFormat);
+        manifest.put("expansionStrategy", parsedArgs.expansionStrategy);
+        manifest.put("encodings", parsedArgs.encodings);
+        manifest.put("complete", missingUuids.isEmpty());
+        manifest.put("uuids", uuids);
+        if (!missingUuids.isEmpty()) {
+            manifest.put("missingUuids", missingUuids);
+        }
+
+        File manifestFile = new File(parsedArgs.outputDirectory, MANIFEST_FILE_NAME_PREFIX + parsedArgs.shard + "-of-" + parsedArgs.shardCount + ".json");
+        mapper.writeValue(manifestFile, manifest);
+        logger.info("Written manifest of " + uuids.size() + " networks of shard " + parsedArgs.shard + " of " + parsedArgs.shardCount
+                + " to " + manifestFile.getAbsolutePath());
+        if (!missingUuids.isEmpty()) {
+            logger.error("Shard " + parsedArgs.shard + " of " + parsedArgs.shardCount + " is incomplete, " + missingUuids.size()
+                    + " networks could not be generated, the merge will reject it until the shard is run again");
+        }
+    }
+
+    /**
+     * Verifies the manifests of all shards in the directory and writes the merged manifest when they are complete.
+     *
+     * @return the problems found, empty when every uuid was produced exactly once
+     */
+    public static List<String> merge(File directory) throws IOException {
+        List<String> problems = new ArrayList<>();
+        File[] manifestFiles = directory.listFiles((dir, name) -> name.startsWith(MANIFEST_FILE_NAME_PREFIX) && name.endsWith(".json"));
+        if (manifestFiles == null || manifestFiles.length == 0) {
+            problems.add("No shard manifests found in " + directory);
+            return problems;
+        }
+        Arrays.sort(manifestFiles);
+
+        Map<String, Object> settings = null;
+        Map<Integer, File> shardFiles = new TreeMap<>();
+        Map<String, Integer> shardsOfUuids = new HashMap<>();
+        List<String> uuids = new ArrayList<>();
+        for (File manifestFile : manifestFiles) {
+            Map<String, Object> manifest = mapper.readValue(manifestFile, new TypeReference<Map<String, Object>>() {});
+            Integer shard = getInteger(manifest, "shard");
+            Integer numberOfShards = getInteger(manifest, "numberOfShards");
+            Integer numberOfSubstances = getInteger(manifest, "numberOfSubstances");
+            List<String> encodings = manifest.containsKey("encodings")
+                    ? getStrings(manifest, "encodings") : Collections.singletonList(NetworkMaker.ENCODING_JSON);
+            List<String> manifestUuids = getStrings(manifest, "uuids");
+            if (shard == null || numberOfShards == null || numberOfShards <= 0 || numberOfSubstances == null || encodings == null
+                    || manifestUuids == null) {
+                problems.add(manifestFile.getName() + " is not a valid shard manifest");
+                continue;
+            }
+
+            Map<String, Object> manifestSettings = new LinkedHashMap<>();
+            for (String setting : SETTINGS) {
+                manifestSettings.put(setting, manifest.get(setting));
+            }
+            if (settings == null) {
+                settings = manifestSettings;
+            } else if (!settings.equals(manifestSettings)) {
+                problems.add(manifestFile.getName() + " was generated with other settings: " + manifestSettings + " instead of " + settings);
+                continue;
+            }
+
+            File otherFile = shardFiles.put(shard, manifestFile);
+            if (otherFile != null) {
+                problems.add("Shard " + shard + " has two manifests: " + otherFile.getName() + " and " + manifestFile.getName());
+                continue;
+            }
+            if (!Boolean.TRUE.equals(manifest.get("complete"))) {
+                problems.add("Shard " + shard + " is incomplete, its networks which could not be generated are listed in "
+                        + manifestFile.getName());
+                continue;
+            }
+
+            for (String uuid : manifestUuids) {
+                Integer otherShard = shardsOfUuids.put(uuid, shard);
+                if (otherShard != null) {
+                    problems.add("Network " + uuid + " was produced by shards " + otherShard + " and " + shard);
+                    continue;
+                }
+                if (getShard(uuid, numberOfShards) != shard) {
+                    problems.add("Network " + uuid + " belongs to shard " + getShard(uuid, numberOfShards) + " but was produced by shard " + shard);
+                }
+                for (String encoding : encodings) {
+                    String fileName = uuid + ".json" + CompressionStage.getExtension(encoding);
+                    if (!new File(directory, fileName).exists()) {
+                        problems.add("Network file " + fileName + " listed by shard " + shard + " is missing");
+                    }
+                }
+                uuids.add(uuid);
+            }
+        }
+
+        if (settings == null) {
+            return problems;
+        }
+        int numberOfShards = (Integer) settings.get("numberOfShards");
+        for (int shard = 0; shard < numberOfShards; shard++) {
+            if (!shardFiles.containsKey(shard)) {
+                problems.add("Manifest of shard " + shard + " of " + numberOfShards + " is missing");
+            }
+        }
+        int numberOfSubstances = (Integer) settings.get("numberOfSubstances");
+        if (problems.isEmpty() && uuids.size() != numberOfSubstances) {
+            problems.add("Shards produced " + uuids.size() + " networks instead of " + numberOfSubstances);
+        }
+        if (!problems.isEmpty()) {
+            return problems;
+        }
+
+        Map<String, Object> merged = new LinkedHashMap<>(settings);
+        merged.put("uuids", uuids);
+        mapper.writeValue(new File(directory, MERGED_MANIFEST_FILE_NAME), merged);
+        return problems;
+    }
+
+    // null when the value is missing or not an int
+    private static Integer getInteger(Map<String, Object> manifest, String key) {
+        Object value = manifest.get(key);
+        return value instanceof Integer ? (Integer) value : null;
+    }
+
+    // null when the value is missing or not a list of strings
+    private static List<String> getStrings(Map<String, Object> manifest, String key) {
+        Object value = manifest.get(key);
+        if (!(value instanceof List)) {
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            if (!(element instanceof String)) {
+                return null;
+            }
+            strings.add((String) element);
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,325 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Load-time index of all substances: every uuid gets a dense int id (in dump order) and outgoing relationships
+ * are stored in compressed sparse row form. Edges of substance {@code id} are {@code [edgeStart(id), edgeEnd(id))},
+ * the link record of every edge lives in an array parallel to the edge targets.
+ * <p>
+ * In the low-memory mode the node jsons and link records are kept in a SubstanceStore instead: the heap only holds the
+ * uuids, the edge targets, the offsets of the node jsons and the distinct link names and types. The link record of an
+ * edge is a fixed-size record of the store, the string indexes of its name, link type and path type and the offset
+ * of its uuid.
+ */
+public class SubstanceGraph {
+    private static final Logger logger = Logger.getLogger(SubstanceGraph.class);
+
+    // Target of an edge whose refuuid is not present in the dump
+    public static final int MISSING_TARGET = UuidIndex.NOT_FOUND;
+
+    // uuid offset, name, link type and path type string indexes, padded to keep the offsets of the next record aligned
+    private static final int EDGE_RECORD_SIZE = 24;
+    // refuuid and uuid offsets, name, link type and path type string indexes of a reference while loading
+    private static final int REFERENCE_RECORD_SIZE = 32;
+    private static final int NULL_STRING = -1;
+
+    private final UuidIndex ids;
+    private final String[] uuids;
+    // null in the low-memory mode
+    private final String[] nodes;
+
+    private final int[] edgeOffsets;
+    private final int[] edgeTargets;
+    // null in the low-memory mode
+    private final LinkRecord[] linkRecords;
+
+    // Low-memory mode only
+    private final SubstanceStore store;
+    private final long[] nodeOffsets;
+    private final long edgeRecordsOffset;
+    private final String[] linkStrings;
+
+    SubstanceGraph(UuidIndex ids, String[] uuids, String[] nodes, int[] edgeOffsets, int[] edgeTargets,
+                   LinkRecord[] linkRecords) {
+        this(ids, uuids, nodes, edgeOffsets, edgeTargets, linkRecords, null, null, 0, null);
+    }
+
+    private SubstanceGraph(UuidIndex ids, String[] uuids, String[] nodes, int[] edgeOffsets, int[] edgeTargets,
+                           LinkRecord[] linkRecords, SubstanceStore store, long[] nodeOffsets, long edgeRecordsOffset,
+                           String[] linkStrings) {
+        this.ids = ids;
+        this.uuids = uuids;
+        this.nodes = nodes;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.linkRecords = linkRecords;
+        this.store = store;
+        this.nodeOffsets = nodeOffsets;
+        this.edgeRecordsOffset = edgeRecordsOffset;
+        this.linkStrings = linkStrings;
+    }
+
+    /**
+     * @return the store of the node jsons and link records, null when they are kept on the heap
+     */
+    public SubstanceStore getStore() {
+        return store;
+    }
+
+    public int size() {
+        return uuids.length;
+    }
+
+    public int getId(String uuid) {
+        return ids.get(uuid);
+    }
+
+    public String getUuid(int id) {
+        return uuids[id];
+    }
+
+    public String getNodeJson(int id) {
+        return nodes != null ? nodes[id] : store.getString(nodeOffsets[id]);
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of the node json in the low-memory mode, of characters otherwise
+     */
+    public int getNodeJsonLength(int id) {
+        return nodes != null ? nodes[id].length() : store.getStringLength(nodeOffsets[id]);
+    }
+
+    public int getNumberOfEdges() {
+        return edgeTargets.length;
+    }
+
+    public int getEdgeStart(int id) {
+        return edgeOffsets[id];
+    }
+
+    public int getEdgeEnd(int id) {
+        return edgeOffsets[id + 1];
+    }
+
+    public int getDegree(int id) {
+        return edgeOffsets[id + 1] - edgeOffsets[id];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    public LinkRecord getLinkRecord(int edge) {
+        if (linkRecords != null) {
+            return linkRecords[edge];
+        }
+        long record = edgeRecordsOffset + (long) edge * EDGE_RECORD_SIZE;
+        return new LinkRecord(getLinkString(store.getInt(record + 8)), getLinkString(store.getInt(record + 12)),
+                getLinkString(store.getInt(record + 16)), store.getString(store.getLong(record)));
+    }
+
+    private String getLinkString(int index) {
+        return index == NULL_STRING ? null : linkStrings[index];
+    }
+
+    public static class Builder {
+        private final UuidIndex ids = new UuidIndex(0);
+        private final List<String> uuids = new ArrayList<>();
+        private final List<String> nodes = new ArrayList<>();
+        // Per substance, in dump order: the refuuid of every reference and the link record of the same reference
+        private final List<List<String>> refuuids = new ArrayList<>();
+        private final List<List<LinkRecord>> links = new ArrayList<>();
+
+        // Low-memory mode only: per substance the offsets of its node json and of its reference records in the store
+        private final SubstanceStore store;
+        private long[] nodeOffsets = new long[0];
+        private long[] referencesOffsets = new long[0];
+        private int[] numbersOfReferences = new int[0];
+        private final Map<String, Integer> linkStringIndexes = new HashMap<>();
+        private final List<String> linkStrings = new ArrayList<>();
+
+        public Builder() {
+            this(null);
+        }
+
+        /**
+         * @param store the store of the node jsons and link records, null to keep them on the heap
+         */
+        public Builder(SubstanceStore store) {
+            this.store = store;
+        }
+
+        // A repeated uuid replaces the earlier substance but keeps its position, the same way LinkedHashMap.put does.
+        public Builder addSubstance(String uuid, String nodeJson, List<String> substanceRefuuids, List<LinkRecord> substanceLinks) {
+            if (store != null) {
+                try {
+                    addStoredSubstance(uuid, nodeJson, substanceRefuuids, substanceLinks);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to write substance store: " + e.getMessage(), e);
+                }
+                return this;
+            }
+            int id = ids.putIfAbsent(uuid, uuids.size());
+            if (id == UuidIndex.NOT_FOUND) {
+                uuids.add(uuid);
+                nodes.add(nodeJson);
+                refuuids.add(substanceRefuuids);
+                links.add(substanceLinks);
+            } else {
+                nodes.set(id, nodeJson);
+                refuuids.set(id, substanceRefuuids);
+                links.set(id, substanceLinks);
+            }
+            return this;
+        }
+
+        private void addStoredSubstance(String uuid, String nodeJson, List<String> substanceRefuuids, List<LinkRecord> substanceLinks) throws IOException {
+            long nodeOffset = store.appendString(nodeJson);
+            long[] stringOffsets = new long[substanceLinks.size() * 2];
+            for (int i = 0; i < substanceLinks.size(); i++) {
+                stringOffsets[i * 2] = store.appendString(substanceRefuuids.get(i));
+                stringOffsets[i * 2 + 1] = store.appendString(substanceLinks.get(i).uuid);
+            }
+            store.align(8);
+            long referencesOffset = store.size();
+            for (int i = 0; i < substanceLinks.size(); i++) {
+                LinkRecord link = substanceLinks.get(i);
+                store.appendLong(stringOffsets[i * 2]);
+                store.appendLong(stringOffsets[i * 2 + 1]);
+                store.appendInt(indexOfLinkString(link.name));
+                store.appendInt(indexOfLinkString(link.linkType));
+                store.appendInt(indexOfLinkString(link.pathType));
+                store.appendInt(0);
+            }
+
+            int id = ids.putIfAbsent(uuid, uuids.size());
+            if (id == UuidIndex.NOT_FOUND) {
+                id = uuids.size();
+                uuids.add(uuid);
+                if (id == nodeOffsets.length) {
+                    int capacity = Math.max(16, id * 2);
+                    nodeOffsets = Arrays.copyOf(nodeOffsets, capacity);
+                    referencesOffsets = Arrays.copyOf(referencesOffsets, capacity);
+                    numbersOfReferences = Arrays.copyOf(numbersOfReferences, capacity);
+                }
+            }
+            nodeOffsets[id] = nodeOffset;
+            referencesOffsets[id] = referencesOffset;
+            numbersOfReferences[id] = substanceLinks.size();
+        }
+
+        private int indexOfLinkString(String value) {
+            if (value == null) {
+                return NULL_STRING;
+            }
+            Integer index = linkStringIndexes.get(value);
+            if (index == null) {
+                index = linkStrings.size();
+                linkStringIndexes.put(value, index);
+                linkStrings.add(value);
+            }
+            return index;
+        }
+
+        public SubstanceGraph build() {
+            if (store != null) {
+                try {
+                    return buildStored();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to write substance store: " + e.getMessage(), e);
+                }
+            }
+            int numberOfNodes = uuids.size();
+            int[] edgeOffsets = new int[numberOfNodes + 1];
+            for (int id = 0; id < numberOfNodes; id++) {
+                edgeOffsets[id + 1] = edgeOffsets[id] + links.get(id).size();
+            }
+
+            int numberOfEdges = edgeOffsets[numberOfNodes];
+            int[] edgeTargets = new int[numberOfEdges];
+            LinkRecord[] linkRecords = new LinkRecord[numberOfEdges];
+
+            // Link types repeat across the whole dump, so they are kept once
+            Map<String, String> internedTypes = new HashMap<>();
+            int edge = 0;
+            for (int id = 0; id < numberOfNodes; id++) {
+                List<String> substanceRefuuids = refuuids.get(id);
+                List<LinkRecord> substanceLinks = links.get(id);
+                for (int i = 0; i < substanceLinks.size(); i++) {
+                    String refuuid = substanceRefuuids.get(i);
+                    int targetId = refuuid != null ? ids.get(refuuid) : MISSING_TARGET;
+                    if (targetId == MISSING_TARGET) {
+                        logger.error("Unable to find substance for uuid " + refuuid + " referenced by uuid " + uuids.get(id));
+                    }
+                    edgeTargets[edge] = targetId;
+                    linkRecords[edge] = intern(internedTypes, substanceLinks.get(i));
+                    edge++;
+                }
+                refuuids.set(id, null);
+                links.set(id, null);
+            }
+
+            return new SubstanceGraph(ids, uuids.toArray(new String[0]), nodes.toArray(new String[0]), edgeOffsets,
+                    edgeTargets, linkRecords);
+        }
+
+        // The reference records are rewritten in edge order, so the link record of an edge is found by its index
+        private SubstanceGraph buildStored() throws IOException {
+            int numberOfNodes = uuids.size();
+            int[] edgeOffsets = new int[numberOfNodes + 1];
+            for (int id = 0; id < numberOfNodes; id++) {
+                edgeOffsets[id + 1] = edgeOffsets[id] + numbersOfReferences[id];
+            }
+
+            store.map();
+            store.align(8);
+            long edgeRecordsOffset = store.size();
+            int[] edgeTargets = new int[edgeOffsets[numberOfNodes]];
+            int edge = 0;
+            for (int id = 0; id < numberOfNodes; id++) {
+                for (int i = 0; i < numbersOfReferences[id]; i++) {
+                    long reference = referencesOffsets[id] + (long) i * REFERENCE_RECORD_SIZE;
+                    String refuuid = store.getString(store.getLong(reference));
+                    int targetId = refuuid != null ? ids.get(refuuid) : MISSING_TARGET;
+                    if (targetId == MISSING_TARGET) {
+                        logger.error("Unable to find substance for uuid " + refuuid + " referenced by uuid " + uuids.get(id));
+                    }
+                    edgeTargets[edge] = targetId;
+                    store.appendLong(store.getLong(reference + 8));
+                    store.appendInt(store.getInt(reference + 16));
+                    store.appendInt(store.getInt(reference + 20));
+                    store.appendInt(store.getInt(reference + 24));
+                    store.appendInt(0);
+                    edge++;
+                }
+            }
+            store.map();
+            store.close();
+
+            return new SubstanceGraph(ids, uuids.toArray(new String[0]), null, edgeOffsets, edgeTargets, null, store,
+                    Arrays.copyOf(nodeOffsets, numberOfNodes), edgeRecordsOffset, linkStrings.toArray(new String[0]));
+        }
+
+        private static LinkRecord intern(Map<String, String> interned, LinkRecord link) {
+            return new LinkRecord(intern(interned, link.name), intern(interned, link.linkType),
+                    intern(interned, link.pathType), link.uuid);
+        }
+
+        private static String intern(Map<String, String> interned, String value) {
+            if (value == null) {
+                return null;
+            }
+            String existing = interned.putIfAbsent(value, value);
+            return existing != null ? existing : value;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a .gsrs dump into a SubstanceGraph.
+ * <p>
+ * With more than one thread ingest is pipelined: a dedicated thread inflates the dump and splits it into batches of
+ * lines, parser workers turn the batches into prepared substances and the calling thread adds them to the graph in
+ * the original dump order. The bounded batch queue keeps the decompressing thread from running ahead of the parsers.
+ * <p>
+ * Records of large substances (e.g. proteins) run to hundreds of KB, so batches are also cut and the read-ahead is
+ * bounded by characters: the lines queued or being parsed never take more than MAX_QUEUED_CHARACTERS, whatever the
+ * number of threads, which keeps ingest within a small heap in the low-memory mode (see SubstanceStore).
+ */
+public class SubstanceLoader {
+    private static final Logger logger = Logger.getLogger(SubstanceLoader.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final int INPUT_BUFFER_SIZE = 1 << 20;
+    private static final int BATCH_SIZE = 256;
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final int MAX_BATCH_CHARACTERS = 4 << 20;
+    private static final int MAX_QUEUED_CHARACTERS = 32 << 20;
+
+    public static SubstanceGraph load(File gsrsDumpFile, int numberOfThreads) throws IOException {
+        return load(gsrsDumpFile, numberOfThreads, LinkTypeRules.getDefault());
+    }
+
+    public static SubstanceGraph load(File gsrsDumpFile, int numberOfThreads, LinkTypeRules linkTypeRules) throws IOException {
+        return load(gsrsDumpFile, numberOfThreads, linkTypeRules, null);
+    }
+
+    /**
+     * @param store the store of the node jsons and link records of the low-memory mode, null to keep them on the heap
+     */
+    public static SubstanceGraph load(File gsrsDumpFile, int numberOfThreads, LinkTypeRules linkTypeRules,
+                                      SubstanceStore store) throws IOException {
+        SubstanceGraph.Builder graphBuilder = new SubstanceGraph.Builder(store);
+        if (numberOfThreads <= 1) {
+            try (BufferedReader reader = openDump(gsrsDumpFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    addSubstance(graphBuilder, prepareSubstance(line, linkTypeRules));
+                }
+            }
+        } else {
+            loadPipelined(gsrsDumpFile, numberOfThreads, linkTypeRules, graphBuilder);
+        }
+        return graphBuilder.build();
+    }
+
+    private static void loadPipelined(File gsrsDumpFile, int numberOfWorkers, LinkTypeRules linkTypeRules,
+                                      SubstanceGraph.Builder graphBuilder) throws IOException {
+        ExecutorService decompressor = Executors.newSingleThreadExecutor();
+        ExecutorService parsers = Executors.newFixedThreadPool(numberOfWorkers);
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(numberOfWorkers * BATCHES_PER_WORKER);
+        Semaphore queuedCharacters = new Semaphore(MAX_QUEUED_CHARACTERS);
+
+        Future<?> reading = decompressor.submit(() -> {
+            try (BufferedReader reader = openDump(gsrsDumpFile)) {
+                List<String> lines = new ArrayList<>(BATCH_SIZE);
+                long characters = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                    characters += line.length();
+                    if (lines.size() == BATCH_SIZE || characters >= MAX_BATCH_CHARACTERS) {
+                        batches.put(submitBatch(parsers, lines, characters, queuedCharacters, linkTypeRules));
+                        lines = new ArrayList<>(BATCH_SIZE);
+                        characters = 0;
+                    }
+                }
+                if (!lines.isEmpty()) {
+                    batches.put(submitBatch(parsers, lines, characters, queuedCharacters, linkTypeRules));
+                }
+            }
+            return null;
+        });
+
+        try {
+            while (true) {
+                Batch batch = batches.poll(100, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    // every batch is queued before the reading task completes
+                    if (reading.isDone() && batches.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                for (PreparedSubstance substance : batch.substances.get()) {
+                    addSubstance(graphBuilder, substance);
+                }
+                queuedCharacters.release(batch.characters);
+            }
+            reading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loading of " + gsrsDumpFile + " was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            decompressor.shutdownNow();
+            parsers.shutdownNow();
+        }
+    }
+
+    // Waits until the characters of the batch fit into the read-ahead, a single batch larger than it gets all of it
+    private static Batch submitBatch(ExecutorService parsers, List<String> lines, long characters, Semaphore queuedCharacters,
+                                     LinkTypeRules linkTypeRules) throws InterruptedException {
+        int permits = (int) Math.min(characters, MAX_QUEUED_CHARACTERS);
+        queuedCharacters.acquire(permits);
+        return new Batch(parsers.submit(() -> {
+            List<PreparedSubstance> substances = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                substances.add(prepareSubstance(line, linkTypeRules));
+            }
+            return substances;
+        }), permits);
+    }
+
+    private static class Batch {
+        final Future<List<PreparedSubstance>> substances;
+        // the permits of the read-ahead held until the batch is added to the graph
+        final int characters;
+
+        Batch(Future<List<PreparedSubstance>> substances, int characters) {
+            this.substances = substances;
+            this.characters = characters;
+        }
+    }
+
+    private static BufferedReader openDump(File gsrsDumpFile) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(gsrsDumpFile), INPUT_BUFFER_SIZE);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), INPUT_BUFFER_SIZE);
+    }
+
+    private static void addSubstance(SubstanceGraph.Builder graphBuilder, PreparedSubstance substance) {
+        if (substance != null) {
+            graphBuilder.addSubstance(substance.uuid, substance.nodeJson, substance.refuuids, substance.links);
+        }
+    }
+
+    // Every reference of a substance is evaluated once at load time, in the same pass as its node
+    private static PreparedSubstance prepareSubstance(String line, LinkTypeRules linkTypeRules) {
+        String gsrsJson = line.trim();
+        SubstanceRecord record;
+        try {
+            record = SubstanceParser.parse(gsrsJson, linkTypeRules);
+        } catch (IOException e) {
+            logger.error("Unable to parse substance json: " + e.getMessage());
+            return null;
+        }
+        String uuid = record.uuid;
+
+        String nodeJson = null;
+        try {
+            nodeJson = mapper.writeValueAsString(record.node);
+        } catch (JsonProcessingException e) {
+            logger.error("Unable to serialize node with uuid " + uuid);
+        }
+
+        return new PreparedSubstance(uuid, nodeJson, record.refuuids, record.links);
+    }
+
+    private static class PreparedSubstance {
+        final String uuid;
+        final String nodeJson;
+        final List<String> refuuids;
+        final List<LinkRecord> links;
+
+        PreparedSubstance(String uuid, String nodeJson, List<String> refuuids, List<LinkRecord> links) {
+            this.uuid = uuid;
+            this.nodeJson = nodeJson;
+            this.refuuids = refuuids;
+            this.links = links;
+        }
+    }
+}
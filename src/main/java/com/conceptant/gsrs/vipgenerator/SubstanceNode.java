@@ -0,0 +1,46 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The node of a substance as built by SubstanceParser, parsed once from its json and shared by all networks.
+ * Networks never change it, their own fetch status and number of relationships are kept by NetworkNode.
+ */
+public class SubstanceNode {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // "id"
+    public final String uuid;
+    // "n": the name, usually a string
+    public final Object name;
+    public final String nodeType;
+    // "obj": the attributes shown for the node, in their json order
+    public final Map<String, Object> obj;
+
+    public SubstanceNode(String uuid, Object name, String nodeType, Map<String, Object> obj) {
+        this.uuid = uuid;
+        this.name = name;
+        this.nodeType = nodeType;
+        this.obj = Collections.unmodifiableMap(new LinkedHashMap<>(obj));
+    }
+
+    public static SubstanceNode fromJson(String nodeJson) throws IOException {
+        NodeJson node = mapper.readValue(nodeJson, NodeJson.class);
+        return new SubstanceNode(node.id, node.n, node.nodeType, node.obj != null ? node.obj : Collections.emptyMap());
+    }
+
+    // The fields of a node json bound directly, "obj" keeps its json order in the LinkedHashMap Jackson builds
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static class NodeJson {
+        public String id;
+        public Object n;
+        public String nodeType;
+        public Map<String, Object> obj;
+    }
+}
@@ -0,0 +1,169 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts everything the generator needs from a single .gsrs line in one streaming pass.
+ * The resulting node is identical to the one produced by the JsonPath expressions previously used in NetworkMaker.getNode,
+ * the references are collected by the LinkTypeRules in the same pass.
+ */
+public class SubstanceParser {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory factory = mapper.getFactory();
+
+    public static final String FDA_UNII_CODE_SYSTEM = "FDA UNII";
+
+    public static SubstanceRecord parse(String json) throws IOException {
+        return parse(json, LinkTypeRules.getDefault());
+    }
+
+    public static SubstanceRecord parse(String json, LinkTypeRules linkTypeRules) throws IOException {
+        String uuid = null;
+        String substanceClass = null;
+        String approvalId = null;
+        List<JsonNode> names = new ArrayList<>();
+        JsonNode uniiCode = null;
+        List<String> refuuids = new ArrayList<>();
+        List<LinkRecord> links = new ArrayList<>();
+
+        try (JsonParser parser = factory.createParser(json)) {
+            parser.setCodec(mapper);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Substance json is not an object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "uuid":
+                        uuid = scalarText(parser, token);
+                        break;
+                    case "substanceClass":
+                        substanceClass = scalarText(parser, token);
+                        break;
+                    case "approvalID":
+                        approvalId = scalarText(parser, token);
+                        break;
+                    case "names":
+                        if (token == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                names.add(parser.readValueAsTree());
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                        break;
+                    case "codes":
+                        if (token == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                JsonNode code = parser.readValueAsTree();
+                                boolean isUniiCode = code.isObject() && code.has("code")
+                                        && FDA_UNII_CODE_SYSTEM.equals(code.path("codeSystem").textValue());
+                                if (uniiCode == null && isUniiCode) {
+                                    uniiCode = code.get("code");
+                                }
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                        break;
+                    default:
+                        if (linkTypeRules.hasRules(field)) {
+                            linkTypeRules.extract(parser, field, refuuids, links);
+                        } else {
+                            parser.skipChildren();
+                        }
+                }
+            }
+        }
+
+        Map<String, Object> node = new LinkedHashMap<>();
+        node.put("id", uuid);
+        node.put("n", getName(names));
+        node.put("nodeType", substanceClass);
+
+        Map<String, Object> nodeObj = new LinkedHashMap<>();
+        nodeObj.put("UUID", uuid);
+        nodeObj.put("Substance Class", substanceClass);
+        nodeObj.put("Type", substanceClass);
+        nodeObj.put("UNII", approvalId != null ? approvalId : toValue(uniiCode));
+        node.put("obj", nodeObj);
+
+        return new SubstanceRecord(uuid, node, refuuids, links);
+    }
+
+    private static String scalarText(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        return token == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    // Same precedence as before: first display name, then first preferred name, then the very first name.
+    private static Object getName(List<JsonNode> names) {
+        JsonNode displayName = findFirstFlaggedName(names, "displayName");
+        if (displayName != null) {
+            return toValue(displayName);
+        }
+
+        JsonNode preferredName = findFirstFlaggedName(names, "preferred");
+        if (preferredName != null) {
+            return toValue(preferredName);
+        }
+
+        if (names.size() > 0 && names.get(0).isObject()) {
+            return toValue(names.get(0).get("name"));
+        }
+        return null;
+    }
+
+    private static JsonNode findFirstFlaggedName(List<JsonNode> names, String flag) {
+        for (JsonNode name : names) {
+            if (name.isObject() && name.path(flag).isBoolean() && name.path(flag).booleanValue()) {
+                JsonNode found = findFirstDeep(name, "name");
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Mirrors the order of JsonPath deep scan ("..name"): an object's own field goes before the fields of its children.
+    private static JsonNode findFirstDeep(JsonNode node, String field) {
+        if (node.isObject() && node.has(field)) {
+            return node.get(field);
+        }
+        Iterator<JsonNode> children = node.elements();
+        while (children.hasNext()) {
+            JsonNode found = findFirstDeep(children.next(), field);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private static Object toValue(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        if (node.isTextual()) {
+            return node.textValue();
+        }
+        return mapper.convertValue(node, Object.class);
+    }
+}
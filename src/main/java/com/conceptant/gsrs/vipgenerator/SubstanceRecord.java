@@ -0,0 +1,19 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import java.util.List;
+import java.util.Map;
+
+public class SubstanceRecord {
+    public String uuid;
+    public Map<String, Object> node;
+    // the uuids referenced by the substance and the attributes of each reference, see LinkTypeRules
+    public List<String> refuuids;
+    public List<LinkRecord> links;
+
+    public SubstanceRecord(String uuid, Map<String, Object> node, List<String> refuuids, List<LinkRecord> links) {
+        this.uuid = uuid;
+        this.node = node;
+        this.refuuids = refuuids;
+        this.links = links;
+    }
+}
@@ -0,0 +1,194 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file holding the bulk data of a SubstanceGraph in the low-memory mode (--store option): the node jsons
+ * and the link records, which otherwise take most of the heap. It is written while the dump is loaded and then
+ * memory-mapped, so the operating system keeps the parts in use in its page cache and the heap only holds the
+ * offsets into the file.
+ * <p>
+ * The file is mapped in chunks of CHUNK_SIZE bytes since a single mapping is limited to 2 GB. A value never crosses
+ * the end of a chunk, the writer skips to the next chunk instead. Strings are stored as an int byte length (-1 for
+ * null) followed by UTF-8 bytes. The file only lives for one run: it gets a unique name in the directory of the --store
+ * option, so processes sharing the directory never write into each other's files, and is deleted when the JVM exits.
+ */
+public class SubstanceStore implements Closeable {
+    private static final Logger logger = Logger.getLogger(SubstanceStore.class);
+
+    public static final long NULL_OFFSET = -1;
+    private static final int NULL_STRING = -1;
+    private static final int CHUNK_SIZE = 1 << 30;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    // end of the data written so far, including the write buffer
+    private long size;
+    // file position of the first byte of the write buffer
+    private long bufferStart;
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    private SubstanceStore(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a new store file in the directory.
+     */
+    public static SubstanceStore create(File directory) throws IOException {
+        File file = Files.createTempFile(directory.toPath(), "substances-", ".store").toFile();
+        file.deleteOnExit();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new SubstanceStore(file, channel);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the offset of the string, NULL_OFFSET for null
+     */
+    public long appendString(String value) throws IOException {
+        if (value == null) {
+            return NULL_OFFSET;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long offset = reserve(4 + bytes.length);
+        writeBuffer.putInt(bytes.length);
+        int written = 0;
+        while (written < bytes.length) {
+            if (!writeBuffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(writeBuffer.remaining(), bytes.length - written);
+            writeBuffer.put(bytes, written, length);
+            written += length;
+        }
+        return offset;
+    }
+
+    public long appendInt(int value) throws IOException {
+        long offset = reserve(4);
+        writeBuffer.putInt(value);
+        return offset;
+    }
+
+    public long appendLong(long value) throws IOException {
+        long offset = reserve(8);
+        writeBuffer.putLong(value);
+        return offset;
+    }
+
+    /**
+     * Pads the data to a multiple of the alignment. Values written at aligned offsets never cross the end of a chunk,
+     * so records of a fixed size made of such values can be addressed by their index.
+     */
+    public void align(int alignment) throws IOException {
+        int padding = (int) ((alignment - size % alignment) % alignment);
+        if (padding > 0) {
+            reserve(padding);
+            for (int i = 0; i < padding; i++) {
+                writeBuffer.put((byte) 0);
+            }
+        }
+    }
+
+    // Skips to the next chunk when the value would cross the end of the current one
+    private long reserve(int length) throws IOException {
+        if (length > CHUNK_SIZE) {
+            throw new IOException("Value of " + length + " bytes is too large for the substance store");
+        }
+        long chunkEnd = (size / CHUNK_SIZE + 1) * CHUNK_SIZE;
+        if (size + length > chunkEnd) {
+            flush();
+            size = chunkEnd;
+            bufferStart = chunkEnd;
+        }
+        // a value of at most 8 bytes is never split, the bytes of a string are written in pieces
+        if (writeBuffer.remaining() < Math.min(length, 8)) {
+            flush();
+        }
+        long offset = size;
+        size += length;
+        return offset;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            bufferStart += channel.write(writeBuffer, bufferStart);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Maps everything written so far for reading. Writing may go on, the new data is readable after the next call.
+     */
+    public void map() throws IOException {
+        flush();
+        int numberOfChunks = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        chunks = new MappedByteBuffer[numberOfChunks];
+        for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+            long start = (long) chunk * CHUNK_SIZE;
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+        }
+        logger.debug("Mapped substance store " + file.getAbsolutePath() + " of " + size + " bytes");
+    }
+
+    public String getString(long offset) {
+        if (offset == NULL_OFFSET) {
+            return null;
+        }
+        ByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)];
+        int position = (int) (offset % CHUNK_SIZE);
+        int length = chunk.getInt(position);
+        if (length == NULL_STRING) {
+            return null;
+        }
+        // absolute reads on a duplicate, so concurrent readers never share a position
+        byte[] bytes = new byte[length];
+        ByteBuffer view = chunk.duplicate();
+        view.position(position + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getStringLength(long offset) {
+        return offset == NULL_OFFSET ? 0 : chunks[(int) (offset / CHUNK_SIZE)].getInt((int) (offset % CHUNK_SIZE));
+    }
+
+    public int getInt(long offset) {
+        return chunks[(int) (offset / CHUNK_SIZE)].getInt((int) (offset % CHUNK_SIZE));
+    }
+
+    public long getLong(long offset) {
+        return chunks[(int) (offset / CHUNK_SIZE)].getLong((int) (offset % CHUNK_SIZE));
+    }
+
+    /**
+     * Closes the file for writing, the mappings stay valid until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -1,14 +1,16 @@
 package com.conceptant.gsrs.vipgenerator;
 
 import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -16,6 +18,8 @@ public class Utils {
     private static final Logger logger = Logger.getLogger(Utils.class);
     private static final Configuration noExceptionsConf = Configuration.builder().options(Option.SUPPRESS_EXCEPTIONS).build();
 
+    public static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
     public static boolean isValidFile(File f) {
         try {
             f.getCanonicalPath();
@@ -35,15 +39,16 @@ public class Utils {
         return str.substring(0, 1).toUpperCase() + str.substring(1);
     }
 
-    public static boolean writeJsonFile(String uuid, String jsonString, File dir) {
-        File jsonFile = new File(dir, uuid + ".json");
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(jsonFile))) {
-            writer.write(jsonString);
-            return true;
-        } catch (IOException e) {
-            logger.error("Error occurred while writing json file with uuid " + uuid);
-            e.printStackTrace();
-            return false;
+    // Files are written next to their final name and renamed once complete, so a crash never leaves a truncated file
+    public static File getTemporaryFile(File file) {
+        return new File(file.getParentFile(), file.getName() + TEMPORARY_FILE_SUFFIX);
+    }
+
+    public static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
@@ -73,6 +78,10 @@ public class Utils {
     }
 
     public static Object readJson(String json, String path) {
-        return JsonPath.using(noExceptionsConf).parse(json).read(path);
+        return parseJson(json).read(path);
+    }
+
+    public static DocumentContext parseJson(String json) {
+        return JsonPath.using(noExceptionsConf).parse(json);
     }
 }
@@ -0,0 +1,148 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map of uuid to dense int id. Canonical uuids (36 lowercase hex characters with dashes, as written by GSRS) are
+ * kept as two longs in an open-addressing table with linear probing, without a String key or boxed id per entry.
+ * Any other uuid string falls back to a regular map, so lookups stay exact string matches.
+ */
+public class UuidIndex {
+    public static final int NOT_FOUND = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Two longs per slot: most and least significant bits
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private final Map<String, Integer> otherIds = new HashMap<>();
+
+    public UuidIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * 2];
+        values = new int[capacity];
+        Arrays.fill(values, NOT_FOUND);
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size + otherIds.size();
+    }
+
+    public int get(String uuid) {
+        if (!isCanonical(uuid)) {
+            Integer id = otherIds.get(uuid);
+            return id != null ? id : NOT_FOUND;
+        }
+
+        long mostSigBits = getMostSigBits(uuid);
+        long leastSigBits = getLeastSigBits(uuid);
+        for (int slot = getSlot(mostSigBits, leastSigBits); ; slot = (slot + 1) & mask) {
+            int id = values[slot];
+            if (id == NOT_FOUND || (keys[slot * 2] == mostSigBits && keys[slot * 2 + 1] == leastSigBits)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the id already mapped to the uuid or NOT_FOUND when the id has been added
+     */
+    public int putIfAbsent(String uuid, int id) {
+        if (!isCanonical(uuid)) {
+            Integer existing = otherIds.putIfAbsent(uuid, id);
+            return existing != null ? existing : NOT_FOUND;
+        }
+
+        if ((size + 1) * 2 > values.length) {
+            resize();
+        }
+        long mostSigBits = getMostSigBits(uuid);
+        long leastSigBits = getLeastSigBits(uuid);
+        int slot = getSlot(mostSigBits, leastSigBits);
+        while (values[slot] != NOT_FOUND) {
+            if (keys[slot * 2] == mostSigBits && keys[slot * 2 + 1] == leastSigBits) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot * 2] = mostSigBits;
+        keys[slot * 2 + 1] = leastSigBits;
+        values[slot] = id;
+        size++;
+        return NOT_FOUND;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int oldSlot = 0; oldSlot < oldValues.length; oldSlot++) {
+            if (oldValues[oldSlot] == NOT_FOUND) {
+                continue;
+            }
+            long mostSigBits = oldKeys[oldSlot * 2];
+            long leastSigBits = oldKeys[oldSlot * 2 + 1];
+            int slot = getSlot(mostSigBits, leastSigBits);
+            while (values[slot] != NOT_FOUND) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot * 2] = mostSigBits;
+            keys[slot * 2 + 1] = leastSigBits;
+            values[slot] = oldValues[oldSlot];
+        }
+    }
+
+    private int getSlot(long mostSigBits, long leastSigBits) {
+        long hash = mostSigBits * 0x9E3779B97F4A7C15L + leastSigBits;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 32;
+        return (int) hash & mask;
+    }
+
+    static boolean isCanonical(String uuid) {
+        if (uuid == null || uuid.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = uuid.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long getMostSigBits(String uuid) {
+        return parseHex(uuid, 0, 8) << 32 | parseHex(uuid, 9, 13) << 16 | parseHex(uuid, 14, 18);
+    }
+
+    private static long getLeastSigBits(String uuid) {
+        return parseHex(uuid, 19, 23) << 48 | parseHex(uuid, 24, 36);
+    }
+
+    private static long parseHex(String uuid, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = uuid.charAt(i);
+            value = value << 4 | (c <= '9' ? c - '0' : c - 'a' + 10);
+        }
+        return value;
+    }
+}
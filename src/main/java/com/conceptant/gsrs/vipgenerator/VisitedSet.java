@@ -0,0 +1,35 @@
+package com.conceptant.gsrs.vipgenerator;
+
+import java.util.Arrays;
+
+/**
+ * Set of graph ids which is cleared in constant time: an id is in the set when its stamp equals the current epoch,
+ * so clearing only starts a new epoch. Meant to be reused by one thread for many roots, see NetworkMaker.
+ */
+public class VisitedSet {
+    private int[] stamps = new int[0];
+    private int epoch;
+
+    public void clear(int numberOfIds) {
+        if (stamps.length < numberOfIds) {
+            stamps = new int[numberOfIds];
+            epoch = 0;
+        } else if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            epoch = 0;
+        }
+        epoch++;
+    }
+
+    public boolean add(int id) {
+        if (stamps[id] == epoch) {
+            return false;
+        }
+        stamps[id] = epoch;
+        return true;
+    }
+
+    public boolean contains(int id) {
+        return stamps[id] == epoch;
+    }
+}